@@ -0,0 +1,75 @@
+package org.example.dem;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк рассылки одного кадра всем клиентам ({@link ChatServer#broadcast})
+ * с получателями в памяти вместо сокетов.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "10000"})
+    public int recipients;
+
+    private List<ChatServer.ClientHandler> clients;
+    private String frame;
+
+    @Setup
+    public void setUp() {
+        clients = new ArrayList<>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            clients.add(new ChatServer.ClientHandler("user" + i, new NullChannel()));
+        }
+        frame = new JSONObject().put("type", "message").put("content", "user0: Привет, Шарарам!").toString();
+    }
+
+    @Benchmark
+    public int broadcastPreEncoded() {
+        return ChatServer.broadcast(clients, frame);
+    }
+
+    @Benchmark
+    public int broadcastEncodeOnce() {
+        // Кадр собирается один раз на рассылку, как в ClientHandler
+        String message = new JSONObject().put("type", "message").put("content", "user0: Привет, Шарарам!").toString();
+        return ChatServer.broadcast(clients, message);
+    }
+
+    /**
+     * Канал, который принимает и отбрасывает все записанные байты.
+     */
+    private static final class NullChannel implements ByteChannel {
+        @Override
+        public int read(ByteBuffer dst) {
+            return -1;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
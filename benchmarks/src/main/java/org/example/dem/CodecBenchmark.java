@@ -0,0 +1,120 @@
+package org.example.dem;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк кодирования и разбора сообщений протокола чата:
+ * org.json (как в ChatServer и ChatClientController) против потокового Jackson.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    @Param({"message", "private", "user_count", "user_list"})
+    public String messageType;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final StringWriter buffer = new StringWriter(256);
+
+    private String content;
+    private String userList;
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        content = "marko: Сегодня в Шарараме всем раздают морковку, приходите к Крошу!";
+        StringBuilder users = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            if (users.length() > 0) {
+                users.append(',');
+            }
+            users.append("smesharik").append(i);
+        }
+        userList = users.toString();
+        encoded = encodeOrgJson();
+    }
+
+    @Benchmark
+    public String encodeOrgJson() {
+        switch (messageType) {
+            case "message":
+                return new JSONObject().put("type", "message").put("content", content).toString();
+            case "private":
+                return new JSONObject().put("type", "message").put("content", content).put("recipient", "krosh").toString();
+            case "user_count":
+                return new JSONObject().put("type", "user_count").put("count", 42).toString();
+            default:
+                return new JSONObject().put("type", "user_list").put("users", userList).toString();
+        }
+    }
+
+    @Benchmark
+    public String encodeStreaming() throws IOException {
+        buffer.getBuffer().setLength(0);
+        try (JsonGenerator generator = jsonFactory.createGenerator(buffer)) {
+            generator.writeStartObject();
+            switch (messageType) {
+                case "message":
+                    generator.writeStringField("type", "message");
+                    generator.writeStringField("content", content);
+                    break;
+                case "private":
+                    generator.writeStringField("type", "message");
+                    generator.writeStringField("content", content);
+                    generator.writeStringField("recipient", "krosh");
+                    break;
+                case "user_count":
+                    generator.writeStringField("type", "user_count");
+                    generator.writeNumberField("count", 42);
+                    break;
+                default:
+                    generator.writeStringField("type", "user_list");
+                    generator.writeStringField("users", userList);
+                    break;
+            }
+            generator.writeEndObject();
+        }
+        return buffer.toString();
+    }
+
+    @Benchmark
+    public void decodeOrgJson(Blackhole blackhole) {
+        JSONObject json = new JSONObject(encoded);
+        blackhole.consume(json.getString("type"));
+        blackhole.consume(json.optString("content", null));
+        blackhole.consume(json.optString("recipient", null));
+        blackhole.consume(json.optString("users", null));
+        blackhole.consume(json.optInt("count"));
+    }
+
+    @Benchmark
+    public void decodeStreaming(Blackhole blackhole) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(encoded)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("count")) {
+                    blackhole.consume(parser.getIntValue());
+                } else {
+                    blackhole.consume(parser.getText());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.dem;
+
+import org.example.dem.pipeline.AhoCorasick;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Бенчмарк фильтра запрещенных слов: автомат Ахо-Корасик против регулярного выражения
+ * с альтернативами при разном количестве шаблонов. Время проверки сообщения автоматом
+ * не должно зависеть от количества шаблонов.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentFilterBenchmark {
+    @Param({"10", "1000", "5000"})
+    public int patternCount;
+
+    private AhoCorasick automaton;
+    private Pattern regex;
+    private String clean;
+    private String dirty;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<String> patterns = new ArrayList<>(patternCount);
+        StringBuilder alternatives = new StringBuilder();
+        for (int i = 0; i < patternCount; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 5 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            patterns.add(word.toString());
+            if (alternatives.length() > 0) {
+                alternatives.append('|');
+            }
+            alternatives.append(Pattern.quote(word.toString()));
+        }
+        automaton = new AhoCorasick(patterns);
+        regex = Pattern.compile(alternatives.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        clean = "marko: Сегодня в Шарараме всем раздают морковку, приходите к Крошу! Nyusha and Barash are waiting";
+        dirty = clean + " " + patterns.get(patternCount - 1);
+    }
+
+    @Benchmark
+    public int automatonClean() {
+        return automaton.find(clean);
+    }
+
+    @Benchmark
+    public String automatonMaskDirty() {
+        return automaton.mask(dirty, '*');
+    }
+
+    @Benchmark
+    public boolean regexClean() {
+        return regex.matcher(clean).find();
+    }
+}
@@ -0,0 +1,178 @@
+package org.example.dem;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
+import ch.qos.logback.core.util.FileSize;
+import org.example.dem.logging.RingBufferAppender;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Бенчмарк стоимости журнала на пути обработчика клиента: рассылка сообщения
+ * ({@link ChatServer#broadcast}) и запись INFO, как при входе или выходе клиента,
+ * раз в {@code messagesPerLog} сообщений.
+ *
+ * <p>{@code off} - журнал отключен, {@code async} - {@link RingBufferAppender} перед файлом
+ * с ротацией (как в logback.xml сервера), {@code sync} - тот же файл без буфера.
+ * {@code logOnly} измеряет только вызов журнала в потоке, который его пишет.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+    @Param({"off", "async", "sync"})
+    public String logging;
+
+    @Param({"100"})
+    public int recipients;
+
+    // Сообщений на одну запись журнала: 1 - худший случай, 50 - вход и выход на сессию из 100 сообщений
+    @Param({"1", "50"})
+    public int messagesPerLog;
+
+    private Logger logger;
+    private List<ChatServer.ClientHandler> clients;
+    private String[] names;
+    private String frame;
+    private Path logDir;
+    private int sinceLog;
+    private int nextName;
+
+    @Setup
+    public void setUp() throws IOException {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        ch.qos.logback.classic.Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        logDir = Files.createTempDirectory("logging-bench");
+        if (logging.equals("off")) {
+            root.setLevel(Level.OFF);
+        } else {
+            root.setLevel(Level.INFO);
+            Appender<ILoggingEvent> file = fileAppender(context);
+            if (logging.equals("async")) {
+                RingBufferAppender async = new RingBufferAppender();
+                async.setContext(context);
+                async.setName("ASYNC");
+                async.addAppender(file);
+                async.start();
+                root.addAppender(async);
+            } else {
+                root.addAppender(file);
+            }
+        }
+        logger = LoggerFactory.getLogger(ChatServer.class);
+
+        clients = new ArrayList<>(recipients);
+        names = new String[recipients];
+        for (int i = 0; i < recipients; i++) {
+            names[i] = "user" + i;
+            clients.add(new ChatServer.ClientHandler(names[i], new NullChannel()));
+        }
+        frame = "{\"type\":\"message\",\"content\":\"user0: Привет, Шарарам!\"}";
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+        try (Stream<Path> files = Files.walk(logDir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int broadcastAndLog() {
+        int delivered = ChatServer.broadcast(clients, frame);
+        if (++sinceLog == messagesPerLog) {
+            sinceLog = 0;
+            logger.info("{} has joined the chat.", nextName());
+        }
+        return delivered;
+    }
+
+    /**
+     * Стоимость записи журнала для вызывающего потока (цикла событий) без рассылки.
+     */
+    @Benchmark
+    public void logOnly() {
+        logger.info("{} has joined the chat.", nextName());
+    }
+
+    private String nextName() {
+        nextName = nextName + 1 == recipients ? 0 : nextName + 1;
+        return names[nextName];
+    }
+
+    private Appender<ILoggingEvent> fileAppender(LoggerContext context) {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n");
+        encoder.start();
+
+        RollingFileAppender<ILoggingEvent> file = new RollingFileAppender<>();
+        file.setContext(context);
+        file.setName("FILE");
+        file.setFile(logDir.resolve("chat_server.log").toString());
+        file.setEncoder(encoder);
+
+        SizeAndTimeBasedRollingPolicy<ILoggingEvent> policy = new SizeAndTimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(file);
+        policy.setFileNamePattern(logDir.resolve("chat_server.%d{yyyy-MM-dd}.%i.log").toString());
+        policy.setMaxFileSize(FileSize.valueOf("50MB"));
+        policy.setMaxHistory(2);
+        policy.setTotalSizeCap(FileSize.valueOf("200MB"));
+        policy.start();
+
+        file.setRollingPolicy(policy);
+        file.start();
+        return file;
+    }
+
+    /**
+     * Канал, который принимает и отбрасывает все записанные байты.
+     */
+    private static final class NullChannel implements ByteChannel {
+        @Override
+        public int read(ByteBuffer dst) {
+            return -1;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.dem;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк пропускной способности хеширования паролей.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PasswordBenchmark {
+    private String salt;
+
+    @Setup
+    public void setUp() {
+        salt = PasswordUtils.generateSalt();
+    }
+
+    @Benchmark
+    public String hashPassword() {
+        return PasswordUtils.hashPassword("пароль, рекомендованный Лосяшем", salt);
+    }
+
+    @Benchmark
+    public boolean verifyPassword() {
+        return PasswordUtils.verifyPassword("losyash", "invalid", salt);
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.dem;
+
+import org.example.dem.server.Connection;
+import org.example.dem.server.ConnectionHandler;
+import org.example.dem.server.EventLoop;
+import org.example.dem.server.Lane;
+import org.example.dem.tls.TlsContexts;
+import org.example.dem.tls.TlsTransport;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк транспорта: подключения в секунду и пропускная способность эхо-сервера
+ * на {@link EventLoop} без шифрования и с TLS.
+ *
+ * <p>{@code connectNew} выполняет полное рукопожатие (сессия клиента сбрасывается),
+ * {@code connectResumed} - возобновление сохраненной сессии; без TLS оба метода
+ * измеряют обычное подключение. {@code echoBatch} отправляет пачку кадров
+ * по открытому соединению и ждет их эхо.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TlsBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({"plain", "tls"})
+    public String transport;
+
+    private Path keyStoreDir;
+    private EventLoop loop;
+    private ServerSocketChannel serverChannel;
+    private int port;
+    private SSLContext clientContext;
+
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+    private byte[] batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        TlsTransport tls = null;
+        if (transport.equals("tls")) {
+            keyStoreDir = Files.createTempDirectory("tls-bench");
+            Path keyStore = keyStoreDir.resolve("server.p12");
+            char[] password = "changeit".toCharArray();
+            Path certStore = keyStoreDir.resolve("server-cert.p12");
+            TlsContexts.generateSelfSigned(keyStore, password);
+            TlsContexts.exportCertificate(keyStore, password, certStore);
+            tls = new TlsTransport(TlsContexts.serverContext(keyStore, password, 10000, 86400), 2, 1024, 1024);
+            clientContext = TlsContexts.clientContext(certStore, password);
+        }
+        int[] weights = new int[Lane.values().length];
+        Arrays.fill(weights, 1);
+        loop = new EventLoop(0, ignored -> new EchoHandler(), channel -> { }, channel -> { }, 4 * 1024 * 1024, weights, tls);
+        loop.start();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        loop.listen(serverChannel);
+
+        socket = open();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedOutputStream(socket.getOutputStream());
+        StringBuilder frames = new StringBuilder();
+        for (int i = 0; i < BATCH; i++) {
+            frames.append("{\"type\":\"message\",\"content\":\"Привет, Шарарам! Сообщение номер ").append(i).append("\"}\n");
+        }
+        batch = frames.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socket.close();
+        serverChannel.close();
+        if (keyStoreDir != null) {
+            Files.deleteIfExists(keyStoreDir.resolve("server.p12"));
+            Files.deleteIfExists(keyStoreDir.resolve("server-cert.p12"));
+            Files.deleteIfExists(keyStoreDir);
+        }
+    }
+
+    @Benchmark
+    public String connectNew() throws IOException {
+        return connect(false);
+    }
+
+    @Benchmark
+    public String connectResumed() throws IOException {
+        return connect(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public String echoBatch() throws IOException {
+        out.write(batch);
+        out.flush();
+        String line = null;
+        for (int i = 0; i < BATCH; i++) {
+            line = in.readLine();
+        }
+        return line;
+    }
+
+    /**
+     * Метод для подключения, обмена одним кадром и закрытия соединения.
+     */
+    private String connect(boolean resume) throws IOException {
+        try (Socket client = open()) {
+            client.getOutputStream().write("{\"type\":\"ping\"}\n".getBytes(StandardCharsets.UTF_8));
+            String echo = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            if (!resume && client instanceof SSLSocket) {
+                // Следующее подключение не найдет сессию в кэше клиента и выполнит полное рукопожатие
+                ((SSLSocket) client).getSession().invalidate();
+            }
+            return echo;
+        }
+    }
+
+    private Socket open() throws IOException {
+        Socket client = clientContext != null
+                ? clientContext.getSocketFactory().createSocket("127.0.0.1", port)
+                : new Socket("127.0.0.1", port);
+        client.setTcpNoDelay(true);
+        return client;
+    }
+
+    /**
+     * Обработчик, который возвращает клиенту каждую полученную строку.
+     */
+    private static final class EchoHandler implements ConnectionHandler {
+        @Override
+        public void onOpen(Connection connection) {
+        }
+
+        @Override
+        public void onLine(Connection connection, String line) {
+            connection.write(Connection.encode(line));
+        }
+
+        @Override
+        public void onClose(Connection connection) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.dem;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк {@link UserManager#loginUser} и {@link UserManager#registerUser}
+ * на файлах с разным количеством пользователей.
+ * Каждое значение параметра запускается в отдельной JVM, поэтому путь к файлу
+ * передается через системное свойство users.file до загрузки UserManager.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UserStoreBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    private static final String PASSWORD = "losyash";
+
+    private Path file;
+    private String existingUser;
+    private int registered;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("users", ".json");
+        System.setProperty("users.file", file.toString());
+        existingUser = "user" + (users / 2);
+    }
+
+    @Setup(Level.Iteration)
+    public void writeUsers() throws IOException {
+        // Все пользователи получают одинаковую соль: на стоимость поиска это не влияет,
+        // а файл на миллион записей создается за секунды
+        String salt = UserManager.generateSalt();
+        String hash = UserManager.hashPassword(PASSWORD, salt);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write('[');
+            for (int i = 0; i < users; i++) {
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write("{\"username\":\"user" + i + "\",\"password\":\"" + hash + "\",\"salt\":\"" + salt + "\"}");
+            }
+            writer.write(']');
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public boolean loginExistingUser() {
+        return UserManager.loginUser(existingUser, PASSWORD);
+    }
+
+    @Benchmark
+    public boolean loginUnknownUser() {
+        return UserManager.loginUser("nobody", PASSWORD);
+    }
+
+    @Benchmark
+    public boolean registerNewUser() {
+        return UserManager.registerUser("new" + (registered++), PASSWORD);
+    }
+}
@@ -21,7 +21,22 @@ module org.example.dem {
     requires java.rmi;
     requires jdk.jdeps;
     requires java.net.http;
+    requires java.management;
+    requires jdk.jfr;
+    requires java.desktop;
 
     opens org.example.dem to javafx.fxml, javafx.graphics;
     exports org.example.dem;
+    exports org.example.dem.metrics;
+    exports org.example.dem.jfr;
+    exports org.example.dem.loadgen;
+    exports org.example.dem.capture;
+    exports org.example.dem.cluster;
+    exports org.example.dem.server;
+    exports org.example.dem.inbox;
+    exports org.example.dem.attachment;
+    exports org.example.dem.pipeline;
+    exports org.example.dem.compression;
+    exports org.example.dem.tls;
+    exports org.example.dem.logging;
 }
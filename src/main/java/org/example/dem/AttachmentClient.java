@@ -0,0 +1,183 @@
+package org.example.dem;
+
+import org.example.dem.exception.ClientException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Клиент канала вложений: загрузка и скачивание файлов по отдельному соединению,
+ * чтобы передача файла не задерживала сообщения чата.
+ *
+ * <p>Загрузка идет частями по {@link #CHUNK_SIZE} байт; идентификатор загрузки вычисляется
+ * из пути, размера и времени изменения файла, поэтому после обрыва связи загрузка
+ * продолжается с того места, которое подтвердил сервер. Скачивание пишется во временный
+ * файл {@code .part} и продолжается с его размера. Каждое соединение начинается
+ * с токена сессии, который сервер чата выдал при входе.
+ */
+public class AttachmentClient {
+    // Размер одной части загрузки
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final String host;
+    private final int port;
+    private final String token;
+
+    /**
+     * @param host  Адрес сервера.
+     * @param port  Порт канала вложений.
+     * @param token Токен сессии из кадра {@code attachment_endpoint}.
+     */
+    public AttachmentClient(String host, int port, String token) {
+        this.host = host;
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Метод для загрузки файла на сервер.
+     *
+     * @param file Файл для загрузки.
+     * @return Идентификатор вложения, который передается в сообщении чата.
+     */
+    public String upload(Path file) {
+        try (SocketChannel channel = open();
+             FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            InputStream in = channel.socket().getInputStream();
+            long size = source.size();
+            String uploadId = uploadId(file, size);
+
+            // Узнаем, сколько байт сервер уже принял
+            command(channel, "STAT " + uploadId);
+            long offset = Long.parseLong(expect(in, "OFFSET"));
+            while (offset < size) {
+                long length = Math.min(CHUNK_SIZE, size - offset);
+                command(channel, "PUT " + uploadId + " " + offset + " " + length);
+                long position = offset;
+                while (position < offset + length) {
+                    position += source.transferTo(position, offset + length - position, channel);
+                }
+                offset = Long.parseLong(expect(in, "OFFSET"));
+            }
+            command(channel, "COMMIT " + uploadId + " " + size);
+            return expect(in, "OK");
+        } catch (IOException ex) {
+            throw new ClientException("Error uploading " + file, ex);
+        }
+    }
+
+    /**
+     * Метод для скачивания вложения.
+     *
+     * @param id     Идентификатор вложения.
+     * @param target Файл, в который сохраняется вложение.
+     */
+    public void download(String id, Path target) {
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        try (SocketChannel channel = open();
+             FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            InputStream in = channel.socket().getInputStream();
+            long offset = file.size();
+            command(channel, "GET " + id + " " + offset);
+            long size = Long.parseLong(expect(in, "OK"));
+            while (offset < size) {
+                long transferred = file.transferFrom(channel, offset, size - offset);
+                if (transferred <= 0) {
+                    throw new IOException("Download interrupted at " + offset);
+                }
+                offset += transferred;
+            }
+        } catch (IOException ex) {
+            throw new ClientException("Error downloading attachment " + id, ex);
+        }
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new ClientException("Error saving attachment to " + target, ex);
+        }
+    }
+
+    /**
+     * Метод для получения миниатюры изображения без скачивания самого файла.
+     *
+     * @param id Идентификатор вложения.
+     * @return Миниатюра в формате JPEG.
+     */
+    public byte[] thumbnail(String id) {
+        try (SocketChannel channel = open()) {
+            InputStream in = channel.socket().getInputStream();
+            command(channel, "THUMB " + id);
+            int size = Integer.parseInt(expect(in, "OK"));
+            return in.readNBytes(size);
+        } catch (IOException ex) {
+            throw new ClientException("Error loading preview of attachment " + id, ex);
+        }
+    }
+
+    /**
+     * Метод для открытия соединения с каналом вложений и передачи токена сессии.
+     */
+    private SocketChannel open() throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            command(channel, "AUTH " + token);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    /**
+     * @return Стабильный идентификатор загрузки для файла в его текущем состоянии.
+     */
+    private static String uploadId(Path file, long size) throws IOException {
+        String key = file.toAbsolutePath() + "|" + size + "|" + Files.getLastModifiedTime(file).toMillis();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static void command(SocketChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Метод для чтения ответа сервера без буферизации (за ответом могут идти байты файла).
+     *
+     * @return Значение после ожидаемого слова ответа.
+     */
+    private static String expect(InputStream in, String word) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Connection closed by server");
+            }
+            line.append((char) b);
+        }
+        String reply = line.toString();
+        if (!reply.startsWith(word + " ")) {
+            throw new IOException("Unexpected reply: " + reply);
+        }
+        return reply.substring(word.length() + 1);
+    }
+}
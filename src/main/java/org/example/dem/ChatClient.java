@@ -1,12 +1,16 @@
 package org.example.dem;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 public class ChatClient extends Application {
+    // Режим обучения архива AppCDS: загрузить оба окна и сразу выйти (-Dchat.cds.training=true)
+    private static final boolean CDS_TRAINING = Boolean.getBoolean("chat.cds.training");
+
     @Override
     public void start(Stage primaryStage) throws Exception {
         // Устанавливает заголовок окна
@@ -38,6 +42,15 @@ public class ChatClient extends Application {
 
         // Устанавливает максимальную высоту окна
         primaryStage.setMaxHeight(507);
+
+        // Пока пользователь вводит данные, в фоне загружается окно чата
+        ClientStartup.begin();
+
+        if (CDS_TRAINING) {
+            // Строит сцену чата, чтобы ее классы попали в архив, и завершает работу
+            new Scene(ClientStartup.takeChatScene().getRoot());
+            Platform.exit();
+        }
     }
 
     public static void main(String[] args) {
@@ -3,15 +3,28 @@ package org.example.dem;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import org.example.dem.compression.CompressionDictionary;
+import org.example.dem.exception.ClientException;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class ChatClientController {
     private static final Logger logger = LoggerFactory.getLogger(ChatClientController.class);
@@ -29,13 +42,22 @@ public class ChatClientController {
     private ComboBox<String> userComboBox; // Выпадающий список для выбора пользователя
     @FXML
     private Button backToGeneralButton; // Кнопка для возврата в общий чат
+    @FXML
+    private Button attachButton; // Кнопка для отправки файла
+    @FXML
+    private Button saveAttachmentButton; // Кнопка для сохранения последнего полученного файла
+    @FXML
+    private ImageView previewImage; // Миниатюра последнего полученного изображения
 
     private Socket socket; // Сокет для подключения к серверу
     private BufferedReader in; // Поток для чтения данных с сервера
     private PrintWriter out; // Поток для отправки данных на сервер
     private String username; // Имя пользователя
     private List<String> onlineUsers = new ArrayList<>(); // Список пользователей онлайн
+    private final Map<Integer, String> userNames = new ConcurrentHashMap<>(); // Словарь пользователей: номер -> имя
     private String selectedRecipient = null; // Выбранный получатель сообщения
+    private volatile AttachmentClient attachmentClient; // Клиент канала вложений (null, пока сервер не сообщил порт)
+    private JSONObject lastAttachment; // Последнее полученное вложение
 
     @FXML
     public void initialize() {
@@ -45,39 +67,55 @@ public class ChatClientController {
         userComboBox.setOnAction(event -> updateRecipient());
         // Устанавливает обработчик событий для кнопки возврата в общий чат
         backToGeneralButton.setOnAction(event -> backToGeneralChat());
+        // Кнопка сохранения доступна, когда получено вложение
+        saveAttachmentButton.setDisable(true);
     }
 
     public void connectToServer() {
         try {
-            // Создает сокет для подключения к серверу
-            socket = new Socket("localhost", 12345);
-            // Создает поток для чтения данных с сервера
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            // Берет соединение, открытое заранее при показе окна входа, или открывает новое
+            socket = ClientStartup.takeConnection();
+            InputStream input = socket.getInputStream();
             // Создает поток для отправки данных на сервер
             out = new PrintWriter(socket.getOutputStream(), true);
-            // Отправляет сообщение о входе пользователя на сервер
-            out.println(new JSONObject().put("type", "login").put("username", username).toString());
+            // Отправляет сообщение о входе пользователя на сервер; просит указывать пользователей номерами и сжимать поток
+            out.println(new JSONObject().put("type", "login").put("username", username)
+                    .put("features", new JSONArray().put("user_ids").put("deflate")).toString());
+
+            // Первая строка - ответ о сжатии; читается без буферизации, так как следом может идти сжатый поток
+            String firstMessage = readPlainLine(input);
+            if (firstMessage != null && isCompressionAccepted(firstMessage)) {
+                Inflater inflater = new Inflater(true);
+                CompressionDictionary.applyTo(inflater);
+                input = new InflaterInputStream(input, inflater) {
+                    @Override
+                    public int available() {
+                        // InflaterInputStream всегда сообщает о доступных данных, из-за чего
+                        // InputStreamReader ждет следующих байтов вместо того, чтобы вернуть строку
+                        return 0;
+                    }
+                };
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                CompressionDictionary.applyTo(deflater);
+                // Каждая строка завершается SYNC_FLUSH, чтобы сервер получил ее сразу
+                out = new PrintWriter(new DeflaterOutputStream(socket.getOutputStream(), deflater, true), true);
+                firstMessage = null;
+            }
+            // Создает поток для чтения данных с сервера
+            in = new BufferedReader(new InputStreamReader(input));
+            String pendingMessage = firstMessage;
 
             // Создает новый поток для чтения сообщений с сервера
             new Thread(() -> {
                 try {
+                    // Сервер без поддержки сжатия сразу присылает обычные сообщения
+                    if (pendingMessage != null) {
+                        handleServerMessage(pendingMessage);
+                    }
                     String message;
                     // Читает сообщения с сервера в цикле
                     while ((message = in.readLine()) != null) {
-                        // Парсит JSON сообщение
-                        JSONObject jsonMessage = new JSONObject(message);
-                        String type = jsonMessage.getString("type");
-                        // Обрабатывает сообщение в зависимости от типа
-                        if (type.equals("user_count")) {
-                            // Обновляет количество пользователей онлайн
-                            Platform.runLater(() -> updateUserCount(jsonMessage.getInt("count")));
-                        } else if (type.equals("user_list")) {
-                            // Обновляет список пользователей онлайн
-                            Platform.runLater(() -> updateUserList(jsonMessage.getString("users")));
-                        } else if (type.equals("message")) {
-                            // Отображает полученное сообщение в области чата
-                            Platform.runLater(() -> chatArea.appendText(jsonMessage.getString("content") + "\n"));
-                        }
+                        handleServerMessage(message);
                     }
                 } catch (IOException ex) {
                     ex.printStackTrace();
@@ -88,6 +126,82 @@ public class ChatClientController {
         }
     }
 
+    private void handleServerMessage(String message) {
+        // Парсит JSON сообщение
+        JSONObject jsonMessage = new JSONObject(message);
+        String type = jsonMessage.getString("type");
+        // Обрабатывает сообщение в зависимости от типа
+        if (type.equals("user_count")) {
+            // Обновляет количество пользователей онлайн
+            Platform.runLater(() -> updateUserCount(jsonMessage.getInt("count")));
+        } else if (type.equals("user_list")) {
+            // Обновляет список пользователей онлайн
+            Platform.runLater(() -> updateUserList(jsonMessage.getString("users")));
+        } else if (type.equals("user_dict")) {
+            // Получает словарь всех пользователей один раз после входа
+            JSONObject users = jsonMessage.getJSONObject("users");
+            List<String> names = new ArrayList<>();
+            for (String id : users.keySet()) {
+                userNames.put(Integer.parseInt(id), users.getString(id));
+                names.add(users.getString(id));
+            }
+            Platform.runLater(() -> setOnlineUsers(names));
+        } else if (type.equals("user_join")) {
+            // Добавляет нового пользователя в словарь и список онлайн
+            String name = jsonMessage.getString("name");
+            userNames.put(jsonMessage.getInt("id"), name);
+            Platform.runLater(() -> userJoined(name));
+        } else if (type.equals("user_leave")) {
+            // Имя остается в словаре: могут прийти сообщения, отправленные до выхода
+            String name = userName(jsonMessage.getInt("id"));
+            Platform.runLater(() -> userLeft(name));
+        } else if (type.equals("msg")) {
+            // Отображает сообщение, подставляя имя отправителя по номеру
+            String sender = userName(jsonMessage.getInt("from"));
+            String label = jsonMessage.optString("label", null);
+            String content = jsonMessage.getString("content");
+            String text = label == null ? sender + ": " + content : sender + " (" + label + "): " + content;
+            JSONObject attachment = jsonMessage.optJSONObject("attachment");
+            Platform.runLater(() -> showMessage(text, attachment));
+        } else if (type.equals("message")) {
+            // Отображает полученное сообщение в области чата
+            JSONObject attachment = jsonMessage.optJSONObject("attachment");
+            Platform.runLater(() -> showMessage(jsonMessage.getString("content"), attachment));
+        } else if (type.equals("attachment_endpoint")) {
+            // Сервер сообщил порт канала вложений и токен сессии для него
+            attachmentClient = new AttachmentClient(socket.getInetAddress().getHostAddress(), jsonMessage.getInt("port"),
+                    jsonMessage.getString("token"));
+        } else if (type.equals("inbox")) {
+            // Отображает личные сообщения, полученные, пока пользователь был не в сети
+            JSONArray messages = jsonMessage.getJSONArray("messages");
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < messages.length(); i++) {
+                text.append(messages.getString(i)).append("\n");
+            }
+            Platform.runLater(() -> chatArea.appendText(text.toString()));
+            // Подтверждает получение, чтобы сервер очистил почтовый ящик
+            out.println(new JSONObject().put("type", "inbox_ack").put("ack", jsonMessage.getLong("ack")).toString());
+        }
+    }
+
+    private static boolean isCompressionAccepted(String message) {
+        JSONObject jsonMessage = new JSONObject(message);
+        return jsonMessage.getString("type").equals("compression") && jsonMessage.optString("algorithm").equals("deflate");
+    }
+
+    private static String readPlainLine(InputStream input) throws IOException {
+        // Читает строку по одному байту, не захватывая следующие за ней данные
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
     @FXML
     private void sendMessage() {
         // Получает текст сообщения из поля ввода
@@ -109,6 +223,91 @@ public class ChatClientController {
         }
     }
 
+    private void showMessage(String content, JSONObject attachment) {
+        if (attachment == null) {
+            chatArea.appendText(content + "\n");
+            return;
+        }
+        // Показывает ссылку на вложение; сам файл скачивается только по кнопке
+        chatArea.appendText(content + " [" + attachment.getString("name") + ", "
+                + attachment.getLong("size") / 1024 + " KB]\n");
+        lastAttachment = attachment;
+        saveAttachmentButton.setDisable(false);
+        if (attachment.optBoolean("preview") && attachmentClient != null) {
+            showPreview(attachment.getString("id"));
+        }
+    }
+
+    private void showPreview(String id) {
+        // Загружает только миниатюру, полный файл скачивается по кнопке
+        new Thread(() -> {
+            try {
+                Image image = new Image(new ByteArrayInputStream(attachmentClient.thumbnail(id)));
+                Platform.runLater(() -> previewImage.setImage(image));
+            } catch (ClientException ex) {
+                logger.warn("Error loading preview", ex);
+            }
+        }, "attachment-preview").start();
+    }
+
+    @FXML
+    private void attachFile() {
+        if (attachmentClient == null) {
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Выбрать файл");
+        File file = chooser.showOpenDialog(attachButton.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        String recipient = selectedRecipient;
+        String caption = messageField.getText();
+        messageField.clear();
+        // Загрузка идет в отдельном потоке и по отдельному соединению, чат при этом не блокируется
+        new Thread(() -> {
+            try {
+                String id = attachmentClient.upload(file.toPath());
+                JSONObject jsonMessage = new JSONObject()
+                        .put("type", "message")
+                        .put("content", caption)
+                        .put("attachment", new JSONObject().put("id", id).put("name", file.getName()));
+                if (recipient != null && !recipient.isEmpty()) {
+                    jsonMessage.put("recipient", recipient);
+                }
+                out.println(jsonMessage.toString());
+                logger.info("Sent attachment {} as {}", file.getName(), id);
+            } catch (ClientException ex) {
+                logger.error("Error sending attachment", ex);
+                Platform.runLater(() -> chatArea.appendText("Не удалось отправить " + file.getName() + "\n"));
+            }
+        }, "attachment-upload").start();
+    }
+
+    @FXML
+    private void saveAttachment() {
+        JSONObject attachment = lastAttachment;
+        if (attachment == null || attachmentClient == null) {
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Сохранить файл");
+        chooser.setInitialFileName(attachment.getString("name"));
+        File file = chooser.showSaveDialog(saveAttachmentButton.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        new Thread(() -> {
+            try {
+                attachmentClient.download(attachment.getString("id"), file.toPath());
+                Platform.runLater(() -> chatArea.appendText("Сохранено: " + file.getName() + "\n"));
+            } catch (ClientException ex) {
+                logger.error("Error saving attachment", ex);
+                Platform.runLater(() -> chatArea.appendText("Не удалось сохранить " + file.getName() + "\n"));
+            }
+        }, "attachment-download").start();
+    }
+
     public void setUsername(String username) {
         // Устанавливает имя пользователя
         this.username = username;
@@ -120,10 +319,37 @@ public class ChatClientController {
     }
 
     private void updateUserList(String userList) {
+        setOnlineUsers(List.of(userList.split(",")));
+    }
+
+    private void setOnlineUsers(List<String> users) {
         // Очищает список пользователей онлайн
         onlineUsers.clear();
         // Добавляет всех пользователей из полученного списка
-        onlineUsers.addAll(List.of(userList.split(",")));
+        onlineUsers.addAll(users);
+        refreshUserComboBox();
+    }
+
+    private void userJoined(String name) {
+        if (!onlineUsers.contains(name)) {
+            onlineUsers.add(name);
+            refreshUserComboBox();
+        }
+        chatArea.appendText(name + " has joined the chat.\n");
+    }
+
+    private void userLeft(String name) {
+        onlineUsers.remove(name);
+        refreshUserComboBox();
+        chatArea.appendText(name + " has left the chat.\n");
+    }
+
+    private String userName(int id) {
+        // Номер может оказаться неизвестным, если словарь еще не получен
+        return userNames.getOrDefault(id, "#" + id);
+    }
+
+    private void refreshUserComboBox() {
         // Фильтрует список, исключая текущего пользователя
         List<String> filteredUsers = onlineUsers.stream()
                 .filter(user -> !user.equals(username))
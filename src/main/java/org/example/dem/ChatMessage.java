@@ -0,0 +1,111 @@
+package org.example.dem;
+
+import org.json.JSONObject;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Сообщение чата до кодирования в кадр протокола.
+ *
+ * <p>Клиенты бывают двух видов: старые получают кадр {@code message}, где имя отправителя
+ * вписано в текст ({@code "имя (метка): текст"}), а клиенты с возможностью {@code user_ids}
+ * получают кадр {@code msg} с числовым идентификатором отправителя и сами подставляют имя
+ * из словаря. Сообщение кодируется не больше одного раза для каждого вида клиентов.
+ * Уведомления о входе и выходе получают только старые клиенты: клиенты со словарем
+ * узнают об этом из кадров {@code user_join} и {@code user_leave}.
+ * Между узлами кластера сообщение передается в виде полей, а не готового кадра.
+ */
+final class ChatMessage {
+    // Отправитель (null - служебное сообщение сервера)
+    private final String sender;
+    // Метка сообщения: null - общий чат, "private" - личное, иначе имя группы
+    private final String label;
+    private final String content;
+    // Ссылка на вложение (может быть null)
+    private final JSONObject attachment;
+    // Сообщение только для старых клиентов
+    private final boolean legacyOnly;
+
+    private ChatMessage(String sender, String label, String content, JSONObject attachment, boolean legacyOnly) {
+        this.sender = sender;
+        this.label = label;
+        this.content = content;
+        this.attachment = attachment;
+        this.legacyOnly = legacyOnly;
+    }
+
+    /**
+     * @param sender     Имя отправителя.
+     * @param label      null - общий чат, "private" - личное сообщение, иначе имя группы.
+     * @param content    Текст сообщения.
+     * @param attachment Ссылка на вложение (может быть null).
+     */
+    static ChatMessage chat(String sender, String label, String content, JSONObject attachment) {
+        return new ChatMessage(sender, label, content, attachment, false);
+    }
+
+    /**
+     * @param text Текст уведомления о входе или выходе пользователя.
+     */
+    static ChatMessage presence(String text) {
+        return new ChatMessage(null, null, text, null, true);
+    }
+
+    JSONObject getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * @return Текст в том виде, в котором его показывает старый клиент.
+     */
+    String legacyText() {
+        if (sender == null) {
+            return content;
+        }
+        return label == null ? sender + ": " + content : sender + " (" + label + "): " + content;
+    }
+
+    /**
+     * @return Кадр {@code message} для старых клиентов.
+     */
+    String toLegacyJson() {
+        return new JSONObject().put("type", "message").put("content", legacyText())
+                .put("attachment", attachment).toString();
+    }
+
+    /**
+     * @param userIds Получение идентификатора пользователя по имени (-1 - у отправителя нет номера).
+     * @return Кадр {@code msg} с идентификатором отправителя (служебные сообщения и сообщения
+     * ушедших пользователей - как у старых клиентов) или null, если клиентам со словарем
+     * сообщение не отправляется.
+     */
+    String toCompactJson(ToIntFunction<String> userIds) {
+        if (legacyOnly) {
+            return null;
+        }
+        int senderId = sender != null ? userIds.applyAsInt(sender) : -1;
+        if (senderId < 0) {
+            // Клиент не сможет найти имя по номеру, поэтому имя передается в тексте
+            return toLegacyJson();
+        }
+        return new JSONObject().put("type", "msg").put("from", senderId)
+                .put("label", label).put("content", content).put("attachment", attachment).toString();
+    }
+
+    /**
+     * @return Поля сообщения для пересылки другому узлу кластера.
+     */
+    String toRelayJson() {
+        return new JSONObject().put("sender", sender).put("label", label).put("content", content)
+                .put("attachment", attachment).put("legacyOnly", legacyOnly ? Boolean.TRUE : null).toString();
+    }
+
+    /**
+     * Метод для восстановления сообщения, пришедшего с другого узла кластера.
+     */
+    static ChatMessage fromRelayJson(String json) {
+        JSONObject fields = new JSONObject(json);
+        return new ChatMessage(fields.optString("sender", null), fields.optString("label", null),
+                fields.getString("content"), fields.optJSONObject("attachment"), fields.optBoolean("legacyOnly"));
+    }
+}
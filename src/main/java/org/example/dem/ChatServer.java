@@ -1,18 +1,67 @@
 package org.example.dem;
 
-import org.example.dem.exception.ClientException;
+import org.example.dem.attachment.AttachmentServer;
+import org.example.dem.attachment.AttachmentStore;
+import org.example.dem.capture.TrafficRecorder;
+import org.example.dem.cluster.ClusterListener;
+import org.example.dem.cluster.ClusterNode;
+import org.example.dem.compression.CompressionContext;
+import org.example.dem.compression.CompressionPool;
 import org.example.dem.exception.ServerException;
+import org.example.dem.inbox.OfflineInbox;
+import org.example.dem.jfr.*;
+import org.example.dem.metrics.MetricsEndpoint;
+import org.example.dem.metrics.ServerMetrics;
+import org.example.dem.pipeline.*;
+import org.example.dem.server.Connection;
+import org.example.dem.server.ConnectionHandler;
+import org.example.dem.server.EventLoop;
+import org.example.dem.server.Lane;
+import org.example.dem.tls.TlsContexts;
+import org.example.dem.tls.TlsTransport;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Сервер чата, который обрабатывает подключения клиентов,
  * рассылает сообщения между клиентами и управляет списком пользователей.
+ *
+ * <p>Соединения обслуживаются несколькими циклами событий (шардами), по одному на ядро.
+ * Каждый шард владеет своей частью соединений и своим списком участников чата.
+ * Общая рассылка кодирует кадр один раз и передает его всем шардам через их очереди задач,
+ * поэтому рассылка выполняется параллельно на всех ядрах без общей блокировки.
+ *
+ * <p>Клиент, указавший при входе возможность {@code user_ids}, получает словарь
+ * {@code user_dict} (номер -> имя) один раз, а затем только изменения {@code user_join}
+ * и {@code user_leave} и сообщения {@code msg}, где отправитель указан номером.
+ * Номер выдается пользователю при первом входе и не меняется до перезапуска узла.
+ * Остальные клиенты работают по прежнему протоколу с именами в тексте сообщений.
+ *
+ * <p>Клиент, указавший возможность {@code deflate}, получает ответ {@code compression}
+ * без сжатия; если сервер согласился ({@code "algorithm":"deflate"}), все последующие
+ * байты в обе стороны идут потоком deflate с общим словарем.
+ *
+ * <p>При {@code tls.enabled=true} основной порт принимает только соединения TLS.
+ * Рукопожатие выполняется циклами событий, а его тяжелые этапы - отдельным пулом потоков;
+ * сессии кэшируются, поэтому повторные подключения клиентов обходятся без полного рукопожатия.
+ * Канал вложений и межузловые соединения кластера остаются без шифрования.
  */
 public class ChatServer {
     // Порт, на котором сервер будет слушать подключения
@@ -21,14 +70,177 @@ public class ChatServer {
     // Максимальное количество одновременных подключений
     private static int MAX_CONNECTIONS;
 
-    // Список активных клиентов
-    private static List<ClientHandler> clients = new ArrayList<>();
+    // Время на вход после подключения; соединение без входа закрывается (0 - без ограничения)
+    private static long LOGIN_TIMEOUT_MILLIS;
+
+    // Количество циклов событий (шардов)
+    private static int SHARDS;
+
+    // Использовать отдельный слушающий сокет на каждый шард (SO_REUSEPORT), если ОС поддерживает
+    private static boolean REUSE_PORT;
+
+    // Максимальный объем неотправленных данных одного клиента, после которого он отключается
+    private static long MAX_OUTBOUND_BYTES;
+
+    // Веса полос исходящих кадров (индекс - порядковый номер Lane)
+    private static int[] LANE_WEIGHTS;
+
+    // Максимальное количество получателей одного личного сообщения и участников группы
+    private static int MAX_RECIPIENTS;
+
+    // Порт локального endpoint с метриками (0 - отключен)
+    private static int METRICS_PORT;
+
+    // Файл для записи JFR при старте сервера (пустая строка - запись не ведется)
+    private static String JFR_FILE;
+
+    // Файл для записи входящего трафика (пустая строка - запись не ведется)
+    private static String CAPTURE_FILE;
+
+    // Размер очереди событий записи трафика
+    private static int CAPTURE_QUEUE_SIZE;
+
+    // Запись входящего трафика (null, если отключена)
+    private static TrafficRecorder recorder;
+
+    // Идентификатор узла кластера (пустая строка - сервер работает без кластера)
+    private static String CLUSTER_NODE_ID;
+
+    // Адрес, на котором узел принимает соединения от других узлов кластера
+    private static String CLUSTER_HOST;
+
+    // Порт для соединений между узлами кластера
+    private static int CLUSTER_PORT;
+
+    // Список узлов кластера в формате id@host:port,...
+    private static String CLUSTER_PEERS;
+
+    // Узел кластера (null, если кластер отключен)
+    private static ClusterNode cluster;
+
+    // Каталог почтовых ящиков для личных сообщений (пустая строка - сообщения не сохраняются)
+    private static String INBOX_DIR;
+
+    // Максимальный объем недоставленных сообщений одного пользователя
+    private static long INBOX_MAX_BYTES_PER_USER;
+
+    // Почтовые ящики пользователей (null, если отключены)
+    private static OfflineInbox inbox;
+
+    // Адрес канала вложений (пустая строка - все адреса)
+    private static String ATTACHMENT_HOST;
+
+    // Порт канала вложений (0 - вложения отключены)
+    private static int ATTACHMENT_PORT;
+
+    // Каталог хранилища вложений
+    private static String ATTACHMENT_DIR;
+
+    // Максимальный размер одного вложения
+    private static long ATTACHMENT_MAX_BYTES;
+
+    // Время хранения ссылки на вложение и вложения без ссылок
+    private static Duration ATTACHMENT_RETENTION;
+
+    // Максимальный объем миниатюр в памяти
+    private static long THUMBNAIL_CACHE_BYTES;
+
+    // Количество потоков канала вложений
+    private static int ATTACHMENT_WORKERS;
+
+    // Ограничения незавершенных загрузок: количество, общий объем и время без новых частей
+    private static int ATTACHMENT_MAX_PENDING_UPLOADS;
+    private static long ATTACHMENT_MAX_PENDING_BYTES;
+    private static Duration ATTACHMENT_STALE_UPLOAD_AGE;
+
+    // Хранилище и канал вложений (null, если вложения отключены)
+    private static AttachmentStore attachments;
+    private static AttachmentServer attachmentServer;
+
+    // Этапы конвейера обработки входящих сообщений в порядке выполнения
+    private static final Set<String> STAGE_NAMES = Set.of("validate", "rate", "filter", "route");
+    private static List<String> PIPELINE_STAGES = List.of("validate", "rate", "filter", "route");
+
+    // Максимальная длина текста сообщения
+    private static int MAX_CONTENT_LENGTH;
+
+    // Ограничение частоты сообщений одного соединения
+    private static double RATE_MESSAGES_PER_SECOND;
+    private static int RATE_BURST;
+
+    // Файл с запрещенными словами (пустая строка - встроенный список) и действие фильтра
+    private static String FILTER_PATTERNS_FILE;
+    private static ContentFilterInterceptor.Action FILTER_ACTION;
+
+    // Сжатие соединений: включено ли, максимум одновременно сжатых соединений, уровень
+    private static boolean COMPRESSION_ENABLED;
+    private static int COMPRESSION_MAX_CONTEXTS;
+    private static int COMPRESSION_LEVEL;
+
+    // Пул контекстов сжатия (null, если сжатие отключено)
+    private static CompressionPool compressionPool;
+
+    // TLS: включен ли, хранилище ключа сервера и пароль, создавать ли самоподписанный ключ
+    // и хранилище его сертификата без ключа для клиентов
+    private static boolean TLS_ENABLED;
+    private static String TLS_KEY_STORE;
+    private static String TLS_CERT_STORE;
+    private static String TLS_KEY_STORE_PASSWORD;
+    private static boolean TLS_SELF_SIGNED;
+
+    // TLS: потоки и очередь для задач рукопожатия, кэш сессий, свободные прямые буферы
+    private static int TLS_HANDSHAKE_THREADS;
+    private static int TLS_HANDSHAKE_QUEUE;
+    private static int TLS_SESSION_CACHE_SIZE;
+    private static int TLS_SESSION_TIMEOUT_SECONDS;
+    private static int TLS_MAX_POOLED_BUFFERS;
+
+    // Общие этапы конвейера
+    private static ValidationInterceptor validator;
+    private static ContentFilterInterceptor contentFilter;
+
+    // Счетчик для выдачи номеров соединений
+    private static final AtomicInteger connectionIds = new AtomicInteger();
+
+    // Циклы событий (шарды)
+    private static EventLoop[] loops = new EventLoop[0];
+
+    // Участники чата каждого шарда; каждый список изменяется и читается только потоком своего шарда
+    private static List<List<ClientHandler>> shardMembers = new ArrayList<>();
+
+    // Вошедшие в чат пользователи: имя -> обработчик
+    private static final Map<String, ClientHandler> users = new ConcurrentHashMap<>();
+
+    // Именованные группы этого узла: имя группы -> участники
+    private static final Map<String, List<String>> groups = new ConcurrentHashMap<>();
+
+    // Текущее количество открытых соединений
+    private static final AtomicInteger connectionCount = new AtomicInteger();
+
+    // Метрики сервера
+    private static final ServerMetrics metrics = ServerMetrics.get();
 
     // Логгер для записи событий сервера
     private static final Logger logger = LoggerFactory.getLogger(ChatServer.class);
 
-    // Текущее количество пользователей в чате
-    private static int userCount = 0;
+    // Текущее количество пользователей, вошедших в чат на этом узле
+    private static final AtomicInteger userCount = new AtomicInteger();
+
+    // Возможности клиента: пользователи указываются номерами; поток сжимается deflate
+    private static final String FEATURE_USER_IDS = "user_ids";
+    private static final String FEATURE_DEFLATE = "deflate";
+
+    // Номера пользователей в сети: имя -> номер. Номер удаляется, когда пользователь уходит,
+    // и при следующем входе выдается новый (номера не переиспользуются)
+    private static final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextUserId = new AtomicInteger();
+
+    // Количество вошедших клиентов каждого формата: кадр собирается, только если он кому-то нужен
+    private static final AtomicInteger legacyClients = new AtomicInteger();
+    private static final AtomicInteger compactClients = new AtomicInteger();
+
+    // Пользователи других узлов, о которых уже сообщено клиентам (доступ под блокировкой самого множества)
+    private static final Set<String> knownRemoteUsers = new HashSet<>();
 
     /**
      * Основной метод, который запускает сервер.
@@ -39,41 +251,174 @@ public class ChatServer {
         // Загружаем конфигурацию сервера
         loadConfig();
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            logger.info("Server is listening on port {}", PORT);
-
-            // Бесконечный цикл для принятия новых подключений
-            while (true) {
-                try {
-                    // Принимаем новое подключение
-                    Socket socket = serverSocket.accept();
-
-                    // Проверяем, не превышено ли максимальное количество подключений
-                    if (clients.size() >= MAX_CONNECTIONS) {
-                        logger.warn("Max connections reached. Rejecting new client.");
-                        socket.close();
-                        continue;
-                    }
+        // Запускаем сбор метрик и, если настроено, текстовый endpoint
+        metrics.setMaxBacklogProbe(ChatServer::maxClientBacklog);
+        metrics.start();
+        if (METRICS_PORT > 0) {
+            new MetricsEndpoint(METRICS_PORT).start();
+        }
+        if (!JFR_FILE.isEmpty()) {
+            ChatFlightRecorder.start(Path.of(JFR_FILE));
+        }
+        if (!CAPTURE_FILE.isEmpty()) {
+            recorder = new TrafficRecorder(Path.of(CAPTURE_FILE), CAPTURE_QUEUE_SIZE);
+            Runtime.getRuntime().addShutdownHook(new Thread(recorder::close, "traffic-recorder-shutdown"));
+        }
+        if (!INBOX_DIR.isEmpty()) {
+            inbox = new OfflineInbox(Path.of(INBOX_DIR), INBOX_MAX_BYTES_PER_USER);
+        }
+        if (COMPRESSION_ENABLED) {
+            compressionPool = new CompressionPool(COMPRESSION_MAX_CONTEXTS, COMPRESSION_LEVEL);
+        }
+        validator = new ValidationInterceptor(MAX_CONTENT_LENGTH);
+        if (PIPELINE_STAGES.contains("filter")) {
+            List<String> patterns = ContentFilterInterceptor.loadPatterns(FILTER_PATTERNS_FILE);
+            AhoCorasick automaton = new AhoCorasick(patterns);
+            contentFilter = new ContentFilterInterceptor(automaton, FILTER_ACTION);
+            logger.info("Content filter loaded {} patterns ({} states)", patterns.size(), automaton.getStateCount());
+        }
+        if (ATTACHMENT_PORT > 0) {
+            attachments = new AttachmentStore(Path.of(ATTACHMENT_DIR), ATTACHMENT_MAX_BYTES,
+                    ATTACHMENT_RETENTION, THUMBNAIL_CACHE_BYTES, ATTACHMENT_MAX_PENDING_UPLOADS,
+                    ATTACHMENT_MAX_PENDING_BYTES, ATTACHMENT_STALE_UPLOAD_AGE);
+            attachmentServer = new AttachmentServer(ATTACHMENT_HOST, ATTACHMENT_PORT, attachments, ATTACHMENT_WORKERS);
+            attachmentServer.start();
+        }
+        if (!CLUSTER_NODE_ID.isEmpty()) {
+            cluster = new ClusterNode(CLUSTER_NODE_ID, CLUSTER_HOST, CLUSTER_PORT, CLUSTER_PEERS, new ClusterBridge());
+            cluster.start();
+        }
 
-                    logger.info("New client connected");
+        TlsTransport tls = TLS_ENABLED ? createTlsTransport() : null;
 
-                    // Создаем обработчик клиента и добавляем его в список
-                    ClientHandler client = new ClientHandler(socket);
-                    clients.add(client);
+        // Создаем и запускаем циклы событий
+        loops = new EventLoop[SHARDS];
+        shardMembers = new ArrayList<>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            loops[i] = new EventLoop(i, ClientHandler::new, ChatServer::admit, ChatServer::release, MAX_OUTBOUND_BYTES, LANE_WEIGHTS, tls);
+            shardMembers.add(new ArrayList<>());
+            loops[i].start();
+        }
 
-                    // Запускаем обработчик клиента в отдельном потоке
-                    new Thread(client).start();
-                } catch (IOException ex) {
-                    throw new ServerException("Error accepting client connection", ex);
+        try {
+            if (REUSE_PORT && supportsReusePort()) {
+                // Каждый шард принимает соединения сам, ядро распределяет их между сокетами
+                for (EventLoop loop : loops) {
+                    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                    serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    serverChannel.bind(new InetSocketAddress(PORT), 1024);
+                    loop.listen(serverChannel);
                 }
+                logger.info("Server is listening on port {} with {} SO_REUSEPORT shards", PORT, SHARDS);
+            } else {
+                acceptRoundRobin();
             }
         } catch (IOException ex) {
             throw new ServerException("Server error", ex);
         }
     }
 
+    /**
+     * Метод для создания общих ресурсов TLS.
+     * Если хранилища ключа нет и разрешен самоподписанный ключ, хранилище создается.
+     */
+    private static TlsTransport createTlsTransport() {
+        Path keyStore = Path.of(TLS_KEY_STORE);
+        char[] password = TLS_KEY_STORE_PASSWORD.toCharArray();
+        try {
+            if (!Files.exists(keyStore)) {
+                if (!TLS_SELF_SIGNED) {
+                    throw new ServerException("TLS key store not found: " + keyStore, null);
+                }
+                TlsContexts.generateSelfSigned(keyStore, password);
+                logger.warn("Generated self-signed TLS certificate in {} (for local testing only)", keyStore);
+            }
+            // Клиентам нужен только сертификат: файл с закрытым ключом сервера не раздается
+            Path certStore = Path.of(TLS_CERT_STORE);
+            if (TLS_SELF_SIGNED && !Files.exists(certStore)) {
+                TlsContexts.exportCertificate(keyStore, password, certStore);
+                logger.info("Exported server certificate for clients to {}", certStore);
+            }
+            TlsTransport transport = new TlsTransport(
+                    TlsContexts.serverContext(keyStore, password, TLS_SESSION_CACHE_SIZE, TLS_SESSION_TIMEOUT_SECONDS),
+                    TLS_HANDSHAKE_THREADS, TLS_HANDSHAKE_QUEUE, TLS_MAX_POOLED_BUFFERS);
+            logger.info("TLS enabled with key store {} and {} handshake threads", keyStore, TLS_HANDSHAKE_THREADS);
+            return transport;
+        } catch (IOException ex) {
+            throw new ServerException("Error initializing TLS", ex);
+        }
+    }
+
+    /**
+     * Метод для приема соединений в основном потоке и передачи их шардам по кругу.
+     */
+    private static void acceptRoundRobin() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(PORT), 1024);
+            logger.info("Server is listening on port {} with {} shards", PORT, SHARDS);
+
+            // Бесконечный цикл для принятия новых подключений
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                loops[next].adopt(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    /**
+     * @return true, если ОС поддерживает SO_REUSEPORT для слушающих сокетов.
+     */
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Метод для проверки нового соединения (вызывается потоком шарда до регистрации).
+     *
+     * @param channel Новое соединение; закрывается, если превышен лимит подключений.
+     */
+    private static void admit(SocketChannel channel) {
+        // Проверяем, не превышено ли максимальное количество подключений
+        if (connectionCount.incrementAndGet() > MAX_CONNECTIONS) {
+            connectionCount.decrementAndGet();
+            logger.warn("Max connections reached. Rejecting new client.");
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Канал уже закрыт
+            }
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("New client connected from {}", channel.socket().getRemoteSocketAddress());
+        }
+        metrics.connectionAccepted();
+        ConnectEvent connectEvent = new ConnectEvent();
+        if (connectEvent.shouldCommit()) {
+            connectEvent.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+            connectEvent.commit();
+        }
+    }
+
+    /**
+     * Метод для отмены {@link #admit}, если соединение не удалось зарегистрировать в шарде.
+     */
+    private static void release(SocketChannel channel) {
+        connectionCount.decrementAndGet();
+        metrics.handshakeFailed();
+    }
+
     /**
      * Метод для загрузки конфигурации сервера из файла application.properties.
+     * Любой параметр можно переопределить системным свойством (например, -Dserver.port=12346),
+     * что позволяет запускать несколько узлов кластера на одной машине.
      */
     private static void loadConfig() {
         Properties properties = new Properties();
@@ -82,162 +427,860 @@ public class ChatServer {
                 throw new ServerException("Configuration file not found: application.properties", null);
             }
             properties.load(input);
+            properties.putAll(System.getProperties());
 
             // Загружаем порт сервера из конфигурации (по умолчанию 12345)
             PORT = Integer.parseInt(properties.getProperty("server.port", "12345"));
 
             // Загружаем максимальное количество подключений (по умолчанию 100)
             MAX_CONNECTIONS = Integer.parseInt(properties.getProperty("server.maxConnections", "100"));
+            LOGIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("server.loginTimeoutSeconds", "10")));
+
+            // Загружаем количество шардов (0 - по количеству ядер)
+            SHARDS = Integer.parseInt(properties.getProperty("server.shards", "0"));
+            if (SHARDS <= 0) {
+                SHARDS = Runtime.getRuntime().availableProcessors();
+            }
+            REUSE_PORT = Boolean.parseBoolean(properties.getProperty("server.reusePort", "true"));
+            MAX_OUTBOUND_BYTES = Long.parseLong(properties.getProperty("server.maxOutboundBytes", "4194304"));
+            LANE_WEIGHTS = Lane.defaultWeights();
+            for (Lane lane : Lane.values()) {
+                String weight = properties.getProperty("server.lane." + lane.getMetricName() + ".weight");
+                if (weight != null) {
+                    LANE_WEIGHTS[lane.ordinal()] = Math.max(1, Integer.parseInt(weight.trim()));
+                }
+            }
+            MAX_RECIPIENTS = Integer.parseInt(properties.getProperty("server.maxRecipients", "256"));
+
+            // Загружаем порт endpoint с метриками (по умолчанию 9404)
+            METRICS_PORT = Integer.parseInt(properties.getProperty("metrics.port", "9404"));
+
+            // Загружаем файл для записи JFR (по умолчанию запись не ведется)
+            JFR_FILE = properties.getProperty("jfr.file", "").trim();
+
+            // Загружаем настройки записи трафика (по умолчанию запись не ведется)
+            CAPTURE_FILE = properties.getProperty("capture.file", "").trim();
+            CAPTURE_QUEUE_SIZE = Integer.parseInt(properties.getProperty("capture.queueSize", "65536"));
+
+            // Загружаем настройки кластера (по умолчанию сервер работает один)
+            CLUSTER_NODE_ID = properties.getProperty("cluster.nodeId", "").trim();
+            CLUSTER_HOST = properties.getProperty("cluster.host", "127.0.0.1").trim();
+            CLUSTER_PORT = Integer.parseInt(properties.getProperty("cluster.port", "13345"));
+            CLUSTER_PEERS = properties.getProperty("cluster.peers", "");
+
+            // Загружаем настройки почтовых ящиков (по умолчанию каталог inbox)
+            INBOX_DIR = properties.getProperty("inbox.dir", "inbox").trim();
+            INBOX_MAX_BYTES_PER_USER = Long.parseLong(properties.getProperty("inbox.maxBytesPerUser", "1048576"));
+
+            // Загружаем настройки конвейера обработки сообщений
+            PIPELINE_STAGES = InboundPipeline.parseStages(
+                    properties.getProperty("pipeline.stages", "validate,rate,filter,route"), STAGE_NAMES);
+            MAX_CONTENT_LENGTH = Integer.parseInt(properties.getProperty("pipeline.maxContentLength", "4096"));
+            RATE_MESSAGES_PER_SECOND = Double.parseDouble(properties.getProperty("pipeline.rate.messagesPerSecond", "20"));
+            RATE_BURST = Integer.parseInt(properties.getProperty("pipeline.rate.burst", "40"));
+            FILTER_PATTERNS_FILE = properties.getProperty("filter.patternsFile", "").trim();
+            FILTER_ACTION = ContentFilterInterceptor.Action.valueOf(
+                    properties.getProperty("filter.action", "mask").trim().toUpperCase(Locale.ROOT));
+
+            // Загружаем настройки сжатия соединений (по умолчанию до 1024 сжатых соединений)
+            COMPRESSION_ENABLED = Boolean.parseBoolean(properties.getProperty("compression.enabled", "true"));
+            COMPRESSION_MAX_CONTEXTS = Integer.parseInt(properties.getProperty("compression.maxContexts", "1024"));
+            COMPRESSION_LEVEL = Integer.parseInt(properties.getProperty("compression.level", "6"));
+
+            // Загружаем настройки TLS (по умолчанию отключен)
+            TLS_ENABLED = Boolean.parseBoolean(properties.getProperty("tls.enabled", "false"));
+            TLS_KEY_STORE = properties.getProperty("tls.keyStore", "tls/server.p12").trim();
+            TLS_CERT_STORE = properties.getProperty("tls.certStore", "tls/server-cert.p12").trim();
+            TLS_KEY_STORE_PASSWORD = properties.getProperty("tls.keyStorePassword", "changeit");
+            TLS_SELF_SIGNED = Boolean.parseBoolean(properties.getProperty("tls.selfSigned", "true"));
+            TLS_HANDSHAKE_THREADS = Integer.parseInt(properties.getProperty("tls.handshakeThreads", "2"));
+            TLS_HANDSHAKE_QUEUE = Integer.parseInt(properties.getProperty("tls.handshakeQueue", "1024"));
+            TLS_SESSION_CACHE_SIZE = Integer.parseInt(properties.getProperty("tls.sessionCacheSize", "10000"));
+            TLS_SESSION_TIMEOUT_SECONDS = Integer.parseInt(properties.getProperty("tls.sessionTimeoutSeconds", "86400"));
+            TLS_MAX_POOLED_BUFFERS = Integer.parseInt(properties.getProperty("tls.maxPooledBuffers", "1024"));
+
+            // Загружаем настройки канала вложений (по умолчанию порт 12400)
+            ATTACHMENT_HOST = properties.getProperty("attachment.host", "").trim();
+            ATTACHMENT_PORT = Integer.parseInt(properties.getProperty("attachment.port", "12400"));
+            ATTACHMENT_DIR = properties.getProperty("attachment.dir", "attachments").trim();
+            ATTACHMENT_MAX_BYTES = Long.parseLong(properties.getProperty("attachment.maxBytes", "26214400"));
+            ATTACHMENT_WORKERS = Integer.parseInt(properties.getProperty("attachment.workers", "4"));
+            ATTACHMENT_RETENTION = Duration.ofMinutes(Long.parseLong(properties.getProperty("attachment.retentionMinutes", "1440")));
+            THUMBNAIL_CACHE_BYTES = Long.parseLong(properties.getProperty("attachment.thumbnailCacheBytes", "8388608"));
+            ATTACHMENT_MAX_PENDING_UPLOADS = Integer.parseInt(properties.getProperty("attachment.maxPendingUploads", "64"));
+            ATTACHMENT_MAX_PENDING_BYTES = Long.parseLong(properties.getProperty("attachment.maxPendingBytes", "536870912"));
+            ATTACHMENT_STALE_UPLOAD_AGE = Duration.ofMinutes(Long.parseLong(properties.getProperty("attachment.staleUploadMinutes", "60")));
         } catch (IOException ex) {
             throw new ServerException("Error loading configuration", ex);
         }
     }
 
+    /**
+     * Метод для определения наибольшей исходящей очереди среди клиентов.
+     *
+     * @return Количество кадров, ожидающих отправки самому медленному клиенту.
+     */
+    private static long maxClientBacklog() {
+        long max = 0;
+        for (ClientHandler client : users.values()) {
+            max = Math.max(max, client.connection.getQueuedFrames());
+        }
+        return max;
+    }
+
+    /**
+     * Метод для отправки количества пользователей во всем кластере всем локальным клиентам.
+     */
+    private static void broadcastUserCount() {
+        int count = userCount.get() + (cluster != null ? cluster.getDirectory().size() : 0);
+        byte[] frame = Connection.encode(new JSONObject().put("type", "user_count").put("count", count).toString());
+        broadcastLocal(frame, frame, Lane.CONTROL);
+    }
+
+    /**
+     * Метод для отправки списка пользователей во всем кластере локальным клиентам без словаря.
+     */
+    private static void broadcastUserList() {
+        if (legacyClients.get() == 0) {
+            return;
+        }
+        StringBuilder userList = new StringBuilder();
+        for (String username : localUsernames()) {
+            if (userList.length() > 0) {
+                userList.append(",");
+            }
+            userList.append(username);
+        }
+        if (cluster != null) {
+            for (String username : cluster.getDirectory().usernames()) {
+                if (userList.length() > 0) {
+                    userList.append(",");
+                }
+                userList.append(username);
+            }
+        }
+        byte[] frame = Connection.encode(new JSONObject().put("type", "user_list").put("users", userList.toString()).toString());
+        broadcastLocal(frame, null, Lane.CONTROL);
+    }
+
+    /**
+     * Метод для отправки клиентам со словарем нового пользователя.
+     */
+    private static void broadcastUserJoined(String username) {
+        if (compactClients.get() > 0) {
+            byte[] frame = Connection.encode(new JSONObject().put("type", "user_join")
+                    .put("id", userId(username)).put("name", username).toString());
+            broadcastLocal(null, frame, Lane.CONTROL);
+        }
+    }
+
+    /**
+     * Метод для отправки клиентам со словарем ушедшего пользователя.
+     *
+     * @param id Номер, который был у пользователя (уже удален из словаря).
+     */
+    private static void broadcastUserLeft(int id) {
+        if (compactClients.get() > 0) {
+            byte[] frame = Connection.encode(new JSONObject().put("type", "user_leave").put("id", id).toString());
+            broadcastLocal(null, frame, Lane.CONTROL);
+        }
+    }
+
+    /**
+     * Метод для рассылки изменений состава пользователей других узлов клиентам со словарем.
+     * Каталог кластера сравнивается с уже объявленным составом.
+     */
+    private static void broadcastRemotePresence() {
+        Set<String> current = new HashSet<>(cluster.getDirectory().usernames());
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        synchronized (knownRemoteUsers) {
+            for (String username : current) {
+                if (knownRemoteUsers.add(username)) {
+                    joined.add(username);
+                }
+            }
+            for (Iterator<String> iterator = knownRemoteUsers.iterator(); iterator.hasNext(); ) {
+                String username = iterator.next();
+                if (!current.contains(username)) {
+                    iterator.remove();
+                    left.add(username);
+                }
+            }
+        }
+        for (String username : joined) {
+            broadcastUserJoined(username);
+        }
+        for (String username : left) {
+            // Имя могло снова появиться в сети на этом узле: тогда его номер еще нужен
+            Integer id = userIds.get(username);
+            if (id != null && !users.containsKey(username) && userIds.remove(username, id)) {
+                broadcastUserLeft(id);
+            }
+        }
+    }
+
+    /**
+     * @return Номер пользователя; при первом обращении выдается новый номер.
+     */
+    static int userId(String username) {
+        Integer id = userIds.get(username);
+        return id != null ? id : userIds.computeIfAbsent(username, name -> nextUserId.incrementAndGet());
+    }
+
+    /**
+     * @return Номер пользователя в сети или -1, если номера нет (отправитель уже ушел).
+     */
+    static int knownUserId(String username) {
+        return userIds.getOrDefault(username, -1);
+    }
+
+    /**
+     * @return Словарь номер -> имя для всех пользователей кластера.
+     */
+    private static JSONObject userDictionary() {
+        JSONObject dictionary = new JSONObject();
+        for (String username : users.keySet()) {
+            dictionary.put(String.valueOf(userId(username)), username);
+        }
+        if (cluster != null) {
+            for (String username : cluster.getDirectory().usernames()) {
+                dictionary.put(String.valueOf(userId(username)), username);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return Имена пользователей, вошедших в чат на этом узле.
+     */
+    private static List<String> localUsernames() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    /**
+     * Метод для доставки сообщения локальным клиентам по именам.
+     * Получатели находятся за один проход по индексу пользователей и группируются по шардам;
+     * кадр каждого формата кодируется один раз, и каждому шарду передается одна задача рассылки.
+     *
+     * @param recipients Имена получателей.
+     * @param message    Сообщение.
+     * @return Получатели, которые не подключены к этому узлу.
+     */
+    private static List<String> deliverLocal(List<String> recipients, ChatMessage message) {
+        List<List<ClientHandler>> perShard = null;
+        List<String> missing = new ArrayList<>(0);
+        boolean anyLegacy = false;
+        boolean anyCompact = false;
+        for (String recipient : recipients) {
+            ClientHandler client = users.get(recipient);
+            if (client == null) {
+                missing.add(recipient);
+                continue;
+            }
+            if (client.compactIds) {
+                anyCompact = true;
+            } else {
+                anyLegacy = true;
+            }
+            if (perShard == null) {
+                perShard = new ArrayList<>(Collections.nCopies(loops.length, null));
+            }
+            int shard = client.loop.getIndex();
+            if (perShard.get(shard) == null) {
+                perShard.set(shard, new ArrayList<>());
+            }
+            perShard.get(shard).add(client);
+        }
+        if (perShard != null) {
+            byte[] legacyFrame = anyLegacy ? Connection.encode(message.toLegacyJson()) : null;
+            String compact = anyCompact ? message.toCompactJson(ChatServer::knownUserId) : null;
+            byte[] compactFrame = compact != null ? Connection.encode(compact) : null;
+            for (EventLoop loop : loops) {
+                List<ClientHandler> targets = perShard.get(loop.getIndex());
+                if (targets != null) {
+                    loop.execute(() -> fanOut(targets, legacyFrame, compactFrame, Lane.CHAT));
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Метод для рассылки сообщения всем клиентам этого узла.
+     * Кадр каждого формата кодируется, только если на узле есть клиенты этого формата.
+     *
+     * @param message Сообщение.
+     */
+    private static void broadcastLocal(ChatMessage message) {
+        byte[] legacyFrame = legacyClients.get() > 0 ? Connection.encode(message.toLegacyJson()) : null;
+        String compact = compactClients.get() > 0 ? message.toCompactJson(ChatServer::knownUserId) : null;
+        byte[] compactFrame = compact != null ? Connection.encode(compact) : null;
+        if (legacyFrame != null || compactFrame != null) {
+            broadcastLocal(legacyFrame, compactFrame, Lane.CHAT);
+        }
+    }
+
+    /**
+     * Метод для рассылки закодированных кадров всем клиентам этого узла.
+     * Рассылку выполняет каждый шард для своих участников.
+     *
+     * @param legacyFrame  Кадр для клиентов без словаря (null - им не отправляется).
+     * @param compactFrame Кадр для клиентов со словарем (null - им не отправляется).
+     * @param lane         Полоса исходящих кадров.
+     */
+    private static void broadcastLocal(byte[] legacyFrame, byte[] compactFrame, Lane lane) {
+        for (EventLoop loop : loops) {
+            List<ClientHandler> members = shardMembers.get(loop.getIndex());
+            loop.execute(() -> fanOut(members, legacyFrame, compactFrame, lane));
+        }
+    }
+
+    /**
+     * Связь узла кластера с локальными клиентами этого сервера.
+     */
+    private static class ClusterBridge implements ClusterListener {
+        @Override
+        public void onRemoteBroadcast(String message) {
+            broadcastLocal(ChatMessage.fromRelayJson(message));
+        }
+
+        @Override
+        public void onRemotePrivate(List<String> recipients, String message) {
+            deliverLocal(recipients, ChatMessage.fromRelayJson(message));
+        }
+
+        @Override
+        public void onPresenceChanged() {
+            broadcastRemotePresence();
+            broadcastUserCount();
+            broadcastUserList();
+        }
+
+        @Override
+        public List<String> localUsers() {
+            return localUsernames();
+        }
+    }
+
+    /**
+     * Метод для отправки одного кадра всем переданным клиентам в текущем потоке.
+     *
+     * @param targets Получатели.
+     * @param message Сообщение в формате JSON.
+     * @return Количество получателей.
+     */
+    static int broadcast(Iterable<ClientHandler> targets, String message) {
+        byte[] frame = Connection.encode(message);
+        return fanOut(targets, frame, frame, Lane.CHAT);
+    }
+
+    /**
+     * Метод для записи закодированного кадра в очереди переданных клиентов.
+     * Каждый клиент получает кадр своего формата.
+     * Вызывается потоком шарда, которому принадлежат клиенты.
+     *
+     * @param targets      Получатели.
+     * @param legacyFrame  Кадр для клиентов без словаря (null - им не отправляется).
+     * @param compactFrame Кадр для клиентов со словарем (null - им не отправляется).
+     * @param lane         Полоса исходящих кадров.
+     * @return Количество получателей.
+     */
+    private static int fanOut(Iterable<ClientHandler> targets, byte[] legacyFrame, byte[] compactFrame, Lane lane) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (ClientHandler client : targets) {
+            byte[] frame = client.compactIds ? compactFrame : legacyFrame;
+            if (frame != null) {
+                client.connection.write(frame, lane);
+                recipients++;
+            }
+        }
+        metrics.recordBroadcastFanOut(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.recipientCount = recipients;
+            event.frameSize = legacyFrame != null ? legacyFrame.length : compactFrame != null ? compactFrame.length : 0;
+            event.commit();
+        }
+        return recipients;
+    }
+
     /**
      * Внутренний класс, который обрабатывает подключение одного клиента.
+     * Все обратные вызовы выполняются потоком шарда, которому принадлежит соединение.
      */
-    private static class ClientHandler implements Runnable {
-        private Socket socket;
-        private BufferedReader in;
-        private PrintWriter out;
+    static class ClientHandler implements ConnectionHandler {
+        // Шард, которому принадлежит соединение (null для обработчиков бенчмарков)
+        private final EventLoop loop;
+        private Connection connection;
         private String clientName;
+        // Номер соединения (используется в записи трафика)
+        private final int connectionId = connectionIds.incrementAndGet();
+        // Признак того, что клиент прошел этап входа
+        private volatile boolean loggedIn;
+        // Токен канала вложений, выданный при входе (null, если вложения отключены)
+        private String attachmentToken;
+        // Клиент получает словарь пользователей и сообщения с номерами вместо имен
+        private volatile boolean compactIds;
+        // Количество сообщений, полученных от клиента
+        private long messagesReceived;
+        // Конвейер обработки входящих сообщений и переиспользуемое сообщение для него
+        private InboundPipeline pipeline;
+        private final InboundMessage inbound = new InboundMessage();
+        // События JFR: этап входа и все время жизни соединения
+        private final HandshakeEvent handshakeEvent = new HandshakeEvent();
+        private final DisconnectEvent sessionEvent = new DisconnectEvent();
 
         /**
          * Конструктор обработчика клиента.
          *
-         * @param socket Сокет, через который подключился клиент.
+         * @param loop Шард, которому принадлежит соединение.
+         */
+        public ClientHandler(EventLoop loop) {
+            this.loop = loop;
+            this.pipeline = createPipeline();
+            sessionEvent.begin();
+        }
+
+        /**
+         * Конструктор обработчика без сокета, который пишет кадры в переданный канал.
+         * Используется бенчмарками для рассылки в памяти.
+         *
+         * @param clientName Имя клиента.
+         * @param sink       Канал, в который записываются кадры.
          */
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        ClientHandler(String clientName, ByteChannel sink) {
+            this.loop = null;
+            this.clientName = clientName;
+            this.connection = new Connection(null, sink, this);
         }
 
         /**
-         * Метод, который выполняется в отдельном потоке для обработки клиента.
+         * Метод для сборки конвейера этого соединения из этапов, заданных в конфигурации.
+         * Этапы без состояния общие для всех соединений, ограничение частоты - свое у каждого.
          */
+        private InboundPipeline createPipeline() {
+            Map<String, Supplier<MessageInterceptor>> stages = Map.of(
+                    "validate", () -> validator,
+                    "rate", () -> new RateLimitInterceptor(RATE_MESSAGES_PER_SECOND, RATE_BURST),
+                    "filter", () -> contentFilter,
+                    "route", () -> this::route);
+            return InboundPipeline.build(PIPELINE_STAGES, stages);
+        }
+
         @Override
-        public void run() {
+        public void onOpen(Connection connection) {
+            this.connection = connection;
+            handshakeEvent.begin();
+            if (recorder != null) {
+                recorder.recordConnect(connectionId);
+            }
+            // Соединение без входа не должно бесконечно занимать место в лимите подключений
+            if (LOGIN_TIMEOUT_MILLIS > 0 && loop != null) {
+                loop.schedule(this::closeIfNotLoggedIn, LOGIN_TIMEOUT_MILLIS);
+            }
+        }
+
+        private void closeIfNotLoggedIn() {
+            if (!loggedIn && !connection.isClosed()) {
+                logger.debug("Closing connection {}: no login within {} ms", connectionId, LOGIN_TIMEOUT_MILLIS);
+                connection.close();
+            }
+        }
+
+        @Override
+        public void onLine(Connection connection, String message) {
+            if (recorder != null) {
+                recorder.recordLine(connectionId, message);
+            }
             try {
-                // Инициализируем потоки ввода-вывода
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
+                if (loggedIn) {
+                    handleMessage(message);
+                } else {
+                    // Первое сообщение от клиента содержит имя пользователя
+                    login(new JSONObject(message));
+                }
+            } catch (JSONException ex) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Malformed message from {}: {}", clientName, ex.getMessage());
+                }
+                connection.close();
+            }
+        }
 
-                // Читаем первое сообщение от клиента (имя пользователя)
-                String message = in.readLine();
-                JSONObject jsonMessage = new JSONObject(message);
-                clientName = jsonMessage.getString("username");
+        /**
+         * Метод для обработки строки входа.
+         */
+        private void login(JSONObject jsonMessage) {
+            String username = jsonMessage.getString("username");
+            // Одно имя - одна сессия в кластере: иначе закрытие любой из сессий убрало бы пользователя
+            // из списков и каталога присутствия, хотя вторая сессия еще в сети
+            boolean onlineElsewhere = cluster != null && cluster.getDirectory().nodeOf(username) != null;
+            if (onlineElsewhere || users.putIfAbsent(username, this) != null) {
+                logger.warn("Rejected login of {}: the user is already online", username);
+                // Соединение остается без входа: клиент может войти под другим именем
+                // или будет закрыт по таймауту входа
+                sendNotice("User " + username + " is already online.");
+                return;
+            }
+            clientName = username;
+            JSONArray features = jsonMessage.optJSONArray("features");
+            List<Object> requested = features != null ? features.toList() : List.of();
+            compactIds = requested.contains(FEATURE_USER_IDS);
+            if (requested.contains(FEATURE_DEFLATE)) {
+                // Ответ о сжатии должен быть первым кадром, который получит клиент
+                negotiateCompression();
+            }
+            userId(clientName);
+            loggedIn = true;
+            (compactIds ? compactClients : legacyClients).incrementAndGet();
+            shardMembers.get(loop.getIndex()).add(this);
+            metrics.handshakeCompleted();
+            commitHandshake();
 
-                // Увеличиваем счетчик пользователей
-                userCount++;
-                logger.info("{} has joined the chat.", clientName);
+            // Увеличиваем счетчик пользователей и сообщаем о входе другим узлам
+            userCount.incrementAndGet();
+            if (cluster != null) {
+                cluster.userJoined(clientName);
+            }
+            logger.info("{} has joined the chat.", clientName);
 
-                // Уведомляем всех пользователей о новом участнике
-                broadcastMessage(new JSONObject().put("type", "message").put("content", clientName + " has joined the chat.").toString());
-                broadcastUserCount();
-                broadcastUserList();
+            // Клиент со словарем получает всех пользователей один раз, дальше - только изменения
+            if (compactIds) {
+                send(Connection.encode(new JSONObject().put("type", "user_dict").put("users", userDictionary()).toString()), Lane.CONTROL);
+            }
 
-                // Обрабатываем сообщения от клиента
-                while ((message = in.readLine()) != null) {
-                    jsonMessage = new JSONObject(message);
-                    String type = jsonMessage.getString("type");
-
-                    // Если тип сообщения "message", обрабатываем его
-                    if (type.equals("message")) {
-                        String content = jsonMessage.getString("content");
-                        String recipient = jsonMessage.optString("recipient", null);
-
-                        // Если указан получатель, отправляем личное сообщение
-                        if (recipient != null && !recipient.isEmpty()) {
-                            sendPrivateMessage(recipient, new JSONObject().put("type", "message").put("content", clientName + " (private): " + content).toString());
-                        } else {
-                            // Иначе отправляем сообщение всем
-                            broadcastMessage(new JSONObject().put("type", "message").put("content", clientName + ": " + content).toString());
-                        }
-                    }
+            // Уведомляем всех пользователей о новом участнике
+            broadcastMessage(ChatMessage.presence(clientName + " has joined the chat."));
+            broadcastUserJoined(clientName);
+            broadcastUserCount();
+            broadcastUserList();
+
+            // Сообщаем клиенту порт канала вложений и токен для него
+            if (attachmentServer != null) {
+                attachmentToken = attachmentServer.issueToken(clientName);
+                send(Connection.encode(new JSONObject().put("type", "attachment_endpoint").put("port", ATTACHMENT_PORT)
+                        .put("token", attachmentToken).toString()), Lane.CONTROL);
+            }
+
+            // Отправляем личные сообщения, полученные, пока пользователь был не в сети
+            if (inbox != null) {
+                inbox.userLoggedIn(clientName, frame -> send(Connection.encode(frame), Lane.CHAT));
+            }
+        }
+
+        /**
+         * Метод для включения сжатия, если есть свободный контекст.
+         * Клиент узнает результат из кадра {@code compression}, который отправляется без сжатия.
+         */
+        private void negotiateCompression() {
+            CompressionContext context = compressionPool != null ? compressionPool.acquire() : null;
+            String algorithm = context != null ? "deflate" : "none";
+            byte[] reply = Connection.encode(new JSONObject().put("type", "compression").put("algorithm", algorithm).toString());
+            if (context != null) {
+                connection.enableCompression(context, reply);
+            } else {
+                send(reply, Lane.CONTROL);
+            }
+        }
+
+        /**
+         * Метод для обработки одного сообщения после входа.
+         */
+        private void handleMessage(String message) {
+            long receivedAt = System.nanoTime();
+            metrics.messageReceived();
+            messagesReceived++;
+            MessageReceivedEvent receivedEvent = new MessageReceivedEvent();
+            receivedEvent.begin();
+            inbound.reset(clientName, new JSONObject(message), receivedAt);
+
+            // Сообщение проходит этапы конвейера; последний этап (route) выполняет его
+            if (!pipeline.process(inbound)) {
+                metrics.messageRejected();
+                if (inbound.getRejectReason() != null) {
+                    sendNotice(inbound.getRejectReason());
+                }
+            }
+            receivedEvent.end();
+            if (receivedEvent.shouldCommit()) {
+                receivedEvent.sender = clientName;
+                receivedEvent.messageType = inbound.getType();
+                receivedEvent.size = message.length();
+                receivedEvent.commit();
+            }
+        }
+
+        /**
+         * Этап конвейера "route": выполнение сообщения в зависимости от его типа.
+         */
+        private boolean route(InboundMessage message) {
+            JSONObject jsonMessage = message.getJson();
+            String type = message.getType();
+
+            // Если тип сообщения "message", обрабатываем его
+            if (type.equals("message")) {
+                String content = message.getContent();
+                if (content == null) {
+                    return message.reject("Message content is missing.");
+                }
+                JSONObject attachment = attachmentReference(jsonMessage.optJSONObject("attachment"));
+                String recipient = jsonMessage.optString("recipient", null);
+                JSONArray recipients = jsonMessage.optJSONArray("recipients");
+                String group = jsonMessage.optString("group", null);
+
+                if (group != null && !group.isEmpty()) {
+                    // Сообщение в именованную группу
+                    sendGroupMessage(group, content, attachment);
+                } else if (recipients != null) {
+                    // Личное сообщение нескольким получателям
+                    sendPrivateMessage(collectRecipients(recipients), ChatMessage.chat(clientName, "private", content, attachment));
+                } else if (recipient != null && !recipient.isEmpty()) {
+                    // Если указан получатель, отправляем личное сообщение
+                    sendPrivateMessage(List.of(recipient), ChatMessage.chat(clientName, "private", content, attachment));
+                } else {
+                    // Иначе отправляем сообщение всем
+                    broadcastMessage(ChatMessage.chat(clientName, null, content, attachment));
+                }
+                // От приема до постановки кадров в очереди шардов; ожидание отправки видно в полосах
+                metrics.recordRouteLatency(System.nanoTime() - message.getReceivedAt());
+            } else if (type.equals("group_create")) {
+                // Клиент создал группу (или изменил состав своей группы)
+                createGroup(jsonMessage.getString("group"), jsonMessage.getJSONArray("members"));
+            } else if (type.equals("inbox_ack") && inbox != null) {
+                // Клиент подтвердил получение сообщений из почтового ящика
+                inbox.acknowledge(clientName, jsonMessage.getLong("ack"));
+            }
+            return true;
+        }
+
+        @Override
+        public void onClose(Connection connection) {
+            connectionCount.decrementAndGet();
+            if (recorder != null) {
+                recorder.recordDisconnect(connectionId);
+            }
+            sessionEvent.end();
+            if (sessionEvent.shouldCommit()) {
+                sessionEvent.username = clientName;
+                sessionEvent.messagesReceived = messagesReceived;
+                sessionEvent.commit();
+            }
+            if (attachmentToken != null) {
+                attachmentServer.revokeToken(attachmentToken);
+            }
+            if (loggedIn) {
+                // Номер освобождается до удаления из списка: новый вход с тем же именем получит новый номер
+                int id = userId(clientName);
+                userIds.remove(clientName, id);
+                // Удаляем клиента из списков
+                users.remove(clientName, this);
+                shardMembers.get(loop.getIndex()).remove(this);
+                (compactIds ? compactClients : legacyClients).decrementAndGet();
+                metrics.connectionClosed();
+                userCount.decrementAndGet();
+                if (cluster != null) {
+                    cluster.userLeft(clientName);
                 }
-            } catch (IOException ex) {
-                throw new ClientException("Client error", ex);
-            } finally {
-                // Закрываем соединения и удаляем клиента из списка
-                closeConnections();
-                clients.remove(this);
-                userCount--;
                 logger.info("{} has left the chat.", clientName);
 
                 // Уведомляем всех пользователей об уходе клиента
-                broadcastMessage(new JSONObject().put("type", "message").put("content", clientName + " has left the chat.").toString());
+                broadcastMessage(ChatMessage.presence(clientName + " has left the chat."));
+                broadcastUserLeft(id);
                 broadcastUserCount();
                 broadcastUserList();
+            } else {
+                metrics.handshakeFailed();
+                commitHandshake();
             }
         }
 
         /**
-         * Метод для отправки сообщения всем подключенным клиентам.
+         * Метод для отправки сообщения всем клиентам этого узла и остальным узлам кластера.
          *
-         * @param message Сообщение в формате JSON.
+         * @param message Сообщение.
          */
-        private void broadcastMessage(String message) {
-            for (ClientHandler client : clients) {
-                client.out.println(message);
+        private void broadcastMessage(ChatMessage message) {
+            broadcastLocal(message);
+            if (cluster != null) {
+                cluster.relayBroadcast(message.toRelayJson());
             }
         }
 
         /**
-         * Метод для отправки личного сообщения конкретному клиенту.
+         * Метод для отправки личного сообщения нескольким клиентам.
+         * Кадр каждого формата собирается один раз: локальные получатели получают его через
+         * свои шарды, удаленные - одним сообщением на узел кластера, а не подключенные
+         * ни к одному узлу получают сообщение в почтовый ящик.
          *
-         * @param recipient Имя получателя.
-         * @param message   Сообщение в формате JSON.
+         * @param recipients Имена получателей без повторов.
+         * @param message    Сообщение.
          */
-        private void sendPrivateMessage(String recipient, String message) {
-            for (ClientHandler client : clients) {
-                if (client.clientName.equals(recipient)) {
-                    client.out.println(message);
-                    break;
+        private void sendPrivateMessage(List<String> recipients, ChatMessage message) {
+            PrivateMessageEvent event = new PrivateMessageEvent();
+            event.begin();
+            List<String> missing = deliverLocal(recipients, message);
+            if (!missing.isEmpty() && cluster != null) {
+                // Получатели могут быть подключены к другим узлам
+                missing = cluster.relayPrivate(missing, message.toRelayJson());
+            }
+            if (inbox != null && !missing.isEmpty()) {
+                // В почтовом ящике хранится только текст, вложение указывается по имени
+                JSONObject attachment = message.getAttachment();
+                String text = message.legacyText();
+                String stored = attachment == null ? text : text + " [" + attachment.getString("name") + "]";
+                for (String recipient : missing) {
+                    inbox.store(recipient, stored);
                 }
             }
+            event.end();
+            if (event.shouldCommit()) {
+                event.sender = clientName;
+                event.recipient = String.join(",", recipients);
+                event.recipientCount = recipients.size();
+                event.delivered = missing.isEmpty();
+                event.commit();
+            }
         }
 
         /**
-         * Метод для отправки текущего количества пользователей всем клиентам.
+         * Метод для отправки сообщения всем участникам группы, кроме отправителя.
+         *
+         * @param group      Имя группы.
+         * @param content    Текст сообщения.
+         * @param attachment Ссылка на вложение (может быть null).
          */
-        private void broadcastUserCount() {
-            for (ClientHandler client : clients) {
-                client.out.println(new JSONObject().put("type", "user_count").put("count", userCount).toString());
+        private void sendGroupMessage(String group, String content, JSONObject attachment) {
+            List<String> members = groups.get(group);
+            if (members == null || !members.contains(clientName)) {
+                sendNotice("Group " + group + " not found.");
+                return;
             }
+            List<String> recipients = new ArrayList<>(members.size());
+            for (String member : members) {
+                if (!member.equals(clientName)) {
+                    recipients.add(member);
+                }
+            }
+            sendPrivateMessage(recipients, ChatMessage.chat(clientName, group, content, attachment));
         }
 
         /**
-         * Метод для отправки списка пользователей всем клиентам.
+         * Метод для создания группы. Создатель всегда входит в группу;
+         * изменить состав существующей группы может только ее участник.
+         *
+         * @param group   Имя группы.
+         * @param members Имена участников.
          */
-        private void broadcastUserList() {
-            StringBuilder userList = new StringBuilder();
-            for (ClientHandler client : clients) {
-                if (userList.length() > 0) {
-                    userList.append(",");
+        private void createGroup(String group, JSONArray members) {
+            List<String> names = collectRecipients(members);
+            if (names.isEmpty()) {
+                return;
+            }
+            names.add(clientName);
+            List<String> created = List.copyOf(names);
+            List<String> current = groups.putIfAbsent(group, created);
+            if (current != null) {
+                if (!current.contains(clientName)) {
+                    sendNotice("Group " + group + " already exists.");
+                    return;
                 }
-                userList.append(client.clientName);
+                groups.put(group, created);
             }
-            for (ClientHandler client : clients) {
-                client.out.println(new JSONObject().put("type", "user_list").put("users", userList.toString()).toString());
+            if (logger.isInfoEnabled()) {
+                // Три аргумента передаются массивом: он создается, только если уровень включен
+                logger.info("{} created group {} with {} members", clientName, group, created.size());
             }
         }
 
         /**
-         * Метод для закрытия соединений с клиентом.
+         * Метод для разбора списка имен из сообщения клиента.
+         * Повторы и имя самого отправителя отбрасываются.
+         *
+         * @param names Массив имен.
+         * @return Список имен; пустой, если имен больше допустимого.
          */
-        private void closeConnections() {
-            try {
-                if (in != null) {
-                    in.close();
-                }
-                if (out != null) {
-                    out.close();
-                }
-                if (socket != null) {
-                    socket.close();
+        private List<String> collectRecipients(JSONArray names) {
+            if (names.length() > MAX_RECIPIENTS) {
+                sendNotice("Too many recipients (max " + MAX_RECIPIENTS + ").");
+                return new ArrayList<>(0);
+            }
+            Set<String> unique = new LinkedHashSet<>();
+            for (int i = 0; i < names.length(); i++) {
+                String name = names.getString(i);
+                if (!name.isEmpty() && !name.equals(clientName)) {
+                    unique.add(name);
                 }
+            }
+            return new ArrayList<>(unique);
+        }
+
+        /**
+         * Метод для проверки ссылки на вложение из сообщения клиента.
+         * В кадр чата попадают только идентификатор, имя и размер из хранилища,
+         * сами байты передаются по каналу вложений.
+         *
+         * @param attachment Ссылка из сообщения клиента (может быть null).
+         * @return Проверенная ссылка или null, если вложения нет или оно не найдено.
+         */
+        private JSONObject attachmentReference(JSONObject attachment) {
+            if (attachment == null || attachments == null) {
+                return null;
+            }
+            String id = attachment.optString("id");
+            if (!attachments.reference(id)) {
+                sendNotice("Attachment not found.");
+                return null;
+            }
+            long size;
+            try {
+                size = attachments.size(id);
             } catch (IOException ex) {
-                throw new ClientException("Error closing connections", ex);
+                sendNotice("Attachment not found.");
+                return null;
+            }
+            return new JSONObject()
+                    .put("id", id)
+                    .put("name", attachment.optString("name", "file"))
+                    .put("size", size)
+                    .put("preview", attachments.hasThumbnail(id));
+        }
+
+        /**
+         * Метод для отправки служебного сообщения этому клиенту.
+         */
+        private void sendNotice(String text) {
+            send(Connection.encode(new JSONObject().put("type", "message").put("content", text).toString()), Lane.CONTROL);
+        }
+
+        /**
+         * Метод для записи события JFR об этапе входа клиента.
+         */
+        private void commitHandshake() {
+            handshakeEvent.end();
+            if (handshakeEvent.shouldCommit()) {
+                handshakeEvent.username = clientName;
+                handshakeEvent.success = loggedIn;
+                handshakeEvent.commit();
+            }
+        }
+
+        /**
+         * Метод для отправки одного кадра этому клиенту из любого потока.
+         * Если вызов сделан не из шарда клиента, запись передается шарду через его очередь.
+         *
+         * @param frame Закодированный кадр.
+         * @param lane  Полоса исходящих кадров.
+         */
+        private void send(byte[] frame, Lane lane) {
+            if (loop == null || loop.inEventLoop()) {
+                connection.write(frame, lane);
+            } else {
+                loop.execute(() -> connection.write(frame, lane));
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,187 @@
+package org.example.dem;
+
+import javafx.fxml.FXMLLoader;
+import org.example.dem.tls.TlsContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Подготовка окна чата и соединения с сервером во время входа пользователя.
+ *
+ * <p>Сразу после показа окна входа в фоновом потоке загружается {@code chat_client.fxml}.
+ * Соединение с сервером (с рукопожатием TLS, если оно включено) открывается при нажатии
+ * кнопки входа, параллельно с проверкой пароля: заранее открытое соединение занимало бы
+ * место в лимите подключений сервера и закрывалось бы по таймауту входа. После входа
+ * {@link LoginRegisterController} забирает готовые объекты и только показывает окно.
+ * Подготовленные объекты выдаются один раз; если подготовка не удалась, окно загружается
+ * и соединение открывается обычным образом.
+ *
+ * <p>Адрес сервера задается свойствами {@code -Dchat.server.host} и {@code -Dchat.server.port}.
+ */
+final class ClientStartup {
+    private static final Logger logger = LoggerFactory.getLogger(ClientStartup.class);
+
+    // Адрес сервера чата
+    private static final String HOST = System.getProperty("chat.server.host", "localhost");
+    private static final int PORT = Integer.getInteger("chat.server.port", 12345);
+
+    // Подключаться по TLS (-Dchat.tls.enabled=true); хранилище доверенных сертификатов и его пароль.
+    // По умолчанию - сертификат сервера без ключа, который сервер создает вместе с самоподписанным ключом;
+    // пустое значение - сертификаты JDK
+    private static final boolean TLS_ENABLED = Boolean.getBoolean("chat.tls.enabled");
+    private static final String TLS_TRUST_STORE = System.getProperty("chat.tls.trustStore", "tls/server-cert.p12");
+    private static final String TLS_TRUST_STORE_PASSWORD = System.getProperty("chat.tls.trustStorePassword", "changeit");
+
+    private static final String CHAT_FXML = "/org/example/dem/chat_client.fxml";
+
+    // Общий контекст TLS: повторные подключения возобновляют сохраненную в нем сессию
+    private static SSLContext tlsContext;
+
+    // Подготовленные окно чата и соединение (null - подготовка не запускалась или результат уже выдан)
+    private static CompletableFuture<FXMLLoader> chatScene;
+    private static CompletableFuture<Socket> connection;
+
+    private ClientStartup() {
+    }
+
+    /**
+     * Метод для запуска фоновой загрузки окна чата.
+     */
+    static synchronized void begin() {
+        chatScene = supplyInBackground("chat-scene-preload", () -> {
+            try {
+                FXMLLoader loader = new FXMLLoader(ClientStartup.class.getResource(CHAT_FXML));
+                loader.load();
+                return loader;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Метод для открытия соединения с сервером в фоне, пока проверяется пароль.
+     * Повторный вызов ничего не делает, если соединение уже открывается.
+     */
+    static synchronized void preconnect() {
+        if (connection != null) {
+            return;
+        }
+        connection = supplyInBackground("server-preconnect", () -> {
+            try {
+                return connect();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Метод для закрытия заранее открытого соединения, если вход не удался.
+     */
+    static void cancelConnection() {
+        CompletableFuture<Socket> prepared;
+        synchronized (ClientStartup.class) {
+            prepared = connection;
+            connection = null;
+        }
+        if (prepared != null) {
+            prepared.thenAccept(socket -> {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Соединение уже закрыто
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Загрузчик с уже построенным окном чата и его контроллером.
+     */
+    static FXMLLoader takeChatScene() throws IOException {
+        CompletableFuture<FXMLLoader> prepared;
+        synchronized (ClientStartup.class) {
+            prepared = chatScene;
+            chatScene = null;
+        }
+        if (prepared != null) {
+            try {
+                return prepared.join();
+            } catch (CompletionException ex) {
+                logger.warn("Chat scene preload failed, loading again", ex.getCause());
+            }
+        }
+        FXMLLoader loader = new FXMLLoader(ClientStartup.class.getResource(CHAT_FXML));
+        loader.load();
+        return loader;
+    }
+
+    /**
+     * @return Открытое соединение с сервером: подготовленное заранее или новое.
+     */
+    static Socket takeConnection() throws IOException {
+        CompletableFuture<Socket> prepared;
+        synchronized (ClientStartup.class) {
+            prepared = connection;
+            connection = null;
+        }
+        if (prepared != null) {
+            try {
+                Socket socket = prepared.join();
+                if (!socket.isClosed()) {
+                    return socket;
+                }
+            } catch (CompletionException ex) {
+                // Сервер мог быть недоступен при первой попытке; пробуем еще раз
+                logger.debug("Early connection failed, connecting again", ex.getCause());
+            }
+        }
+        return connect();
+    }
+
+    /**
+     * Метод для открытия сокета к серверу: обычного или TLS, в зависимости от настроек клиента.
+     * Рукопожатие TLS выполняется сразу, чтобы оно не задерживало первое сообщение.
+     */
+    private static Socket connect() throws IOException {
+        if (!TLS_ENABLED) {
+            return new Socket(HOST, PORT);
+        }
+        SSLSocket socket = (SSLSocket) tlsContext().getSocketFactory().createSocket(HOST, PORT);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static synchronized SSLContext tlsContext() throws IOException {
+        if (tlsContext == null) {
+            Path trustStore = TLS_TRUST_STORE.isEmpty() ? null : Path.of(TLS_TRUST_STORE);
+            tlsContext = TlsContexts.clientContext(trustStore, TLS_TRUST_STORE_PASSWORD.toCharArray());
+        }
+        return tlsContext;
+    }
+
+    private static <T> CompletableFuture<T> supplyInBackground(String name, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(task.get());
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+}
@@ -72,6 +72,9 @@ public class LoginRegisterController {
         String username = usernameField.getText();
         String password = passwordField.getText();
 
+        // Соединение с сервером открывается, пока проверяется пароль
+        ClientStartup.preconnect();
+        boolean loggedIn = false;
         try {
             // Читаем данные пользователей из файла
             Map<String, String> users = readUsersFromFile();
@@ -87,6 +90,7 @@ public class LoginRegisterController {
                 // Проверяем, совпадает ли введенный пароль с хешированным паролем
                 if (PasswordUtils.verifyPassword(password, storedHash, storedSalt)) {
                     System.out.println("Login successful!");
+                    loggedIn = true;
                     // Открываем окно чата
                     openChatWindow(username);
                     // Закрываем окно входа
@@ -99,6 +103,10 @@ public class LoginRegisterController {
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (!loggedIn) {
+                ClientStartup.cancelConnection();
+            }
         }
     }
 
@@ -165,9 +173,9 @@ public class LoginRegisterController {
      */
     private void openChatWindow(String username) {
         try {
-            // Загружаем FXML-файл окна чата
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/org/example/dem/chat_client.fxml"));
-            Parent root = loader.load();
+            // Берем окно чата, загруженное в фоне при показе окна входа
+            FXMLLoader loader = ClientStartup.takeChatScene();
+            Parent root = loader.getRoot();
 
             // Получаем контроллер окна чата
             ChatClientController controller = loader.getController();
@@ -14,8 +14,8 @@ import java.util.Base64;
  * хранение данных пользователей в файле и работу с паролями (хеширование и соль).
  */
 public class UserManager {
-    // Имя файла, в котором будут храниться данные пользователей
-    private static final String FILE_NAME = "users.json";
+    // Имя файла, в котором будут храниться данные пользователей (можно переопределить через -Dusers.file)
+    private static final String FILE_NAME = System.getProperty("users.file", "users.json");
 
     /**
      * Метод для хеширования пароля с использованием соли.
@@ -68,12 +68,9 @@ public class UserManager {
         JSONArray usersArray = readUsersFromFile();
 
         // Проверяем, существует ли уже пользователь с таким именем
-        for (int i = 0; i < usersArray.length(); i++) {
-            JSONObject userObject = usersArray.getJSONObject(i);
-            if (userObject.getString("username").equals(username)) {
-                // Если пользователь уже существует, возвращаем false
-                return false;
-            }
+        if (findUser(usersArray, username) != null) {
+            // Если пользователь уже существует, возвращаем false
+            return false;
         }
 
         // Генерируем соль для нового пользователя
@@ -108,24 +105,39 @@ public class UserManager {
         JSONArray usersArray = readUsersFromFile();
 
         // Ищем пользователя с указанным именем
+        JSONObject userObject = findUser(usersArray, username);
+        if (userObject != null) {
+            // Получаем соль и хешированный пароль из файла
+            String storedSalt = userObject.getString("salt");
+            String storedHashedPassword = userObject.getString("password");
+            // Хешируем введенный пароль с использованием соли из файла
+            String inputHashedPassword = hashPassword(password, storedSalt);
+
+            // Сравниваем хешированные пароли
+            if (storedHashedPassword.equals(inputHashedPassword)) {
+                // Если пароли совпадают, возвращаем true
+                return true;
+            }
+        }
+        // Если пользователь не найден или пароль не совпадает, возвращаем false
+        return false;
+    }
+
+    /**
+     * Метод для поиска пользователя по имени.
+     *
+     * @param usersArray JSONArray с данными пользователей.
+     * @param username   Имя пользователя.
+     * @return Объект пользователя или null, если пользователь не найден.
+     */
+    private static JSONObject findUser(JSONArray usersArray, String username) {
         for (int i = 0; i < usersArray.length(); i++) {
             JSONObject userObject = usersArray.getJSONObject(i);
             if (userObject.getString("username").equals(username)) {
-                // Получаем соль и хешированный пароль из файла
-                String storedSalt = userObject.getString("salt");
-                String storedHashedPassword = userObject.getString("password");
-                // Хешируем введенный пароль с использованием соли из файла
-                String inputHashedPassword = hashPassword(password, storedSalt);
-
-                // Сравниваем хешированные пароли
-                if (storedHashedPassword.equals(inputHashedPassword)) {
-                    // Если пароли совпадают, возвращаем true
-                    return true;
-                }
+                return userObject;
             }
         }
-        // Если пользователь не найден или пароль не совпадает, возвращаем false
-        return false;
+        return null;
     }
 
     /**
@@ -0,0 +1,360 @@
+package org.example.dem.attachment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Отдельный канал для передачи вложений, чтобы большие файлы не задерживали
+ * текстовые сообщения в соединении чата.
+ *
+ * <p>Протокол - строка команды ASCII, за которой для {@code PUT} следуют байты файла.
+ * Первой командой соединения клиент передает токен, который сервер чата выдал ему
+ * при входе в кадре {@code attachment_endpoint}; без действующего токена соединение закрывается.
+ * <pre>
+ * AUTH &lt;token&gt;                       (без ответа; при неверном токене - ERR)
+ * STAT &lt;uploadId&gt;                    -> OFFSET &lt;принято байт&gt;
+ * PUT &lt;uploadId&gt; &lt;offset&gt; &lt;length&gt;  + length байт -> OFFSET &lt;принято байт&gt;
+ * COMMIT &lt;uploadId&gt; &lt;size&gt;          -> OK &lt;id вложения&gt;
+ * GET &lt;id&gt; &lt;offset&gt;                  -> OK &lt;size&gt;, затем байты с offset до конца файла
+ * THUMB &lt;id&gt;                         -> OK &lt;size&gt;, затем миниатюра JPEG
+ * </pre>
+ * При ошибке сервер отвечает {@code ERR <причина>} и закрывает соединение.
+ * Прерванная загрузка продолжается командой {@code STAT} и {@code PUT} с полученного смещения,
+ * прерванное скачивание - командой {@code GET} с размера уже сохраненной части.
+ *
+ * <p>Токен связан с именем пользователя, и {@code uploadId} клиента действует только в пределах
+ * этого имени: хранилище получает идентификатор, выведенный из имени и {@code uploadId}, поэтому
+ * другой пользователь не может узнать смещение чужой загрузки, дописать ее или завершить.
+ * Загрузку можно продолжить и после повторного входа под тем же именем. Готовые вложения
+ * адресуются хешем содержимого и доступны любому вошедшему пользователю, который знает id
+ * (его получают вместе с сообщением).
+ *
+ * <p>Байты загрузки пишутся в файл через {@link FileChannel#transferFrom}, а скачивание
+ * выполняется через {@link FileChannel#transferTo}, поэтому содержимое файлов не копируется
+ * в кучу Java. Соединения обслуживаются ограниченным пулом потоков. Передача идет частями
+ * по {@link #TRANSFER_CHUNK} байт, и соединение, в котором за {@link #IDLE_TIMEOUT_MILLIS}
+ * не прошло ни одной части, закрывается, чтобы остановившийся клиент не занимал поток пула.
+ */
+public class AttachmentServer implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentServer.class);
+
+    // Максимальная длина строки команды
+    private static final int MAX_COMMAND_LENGTH = 256;
+
+    // Время ожидания следующей команды от клиента
+    private static final int IDLE_TIMEOUT_MILLIS = 30_000;
+
+    // Наибольшая часть файла, передаваемая одним вызовом transferFrom или transferTo
+    private static final long TRANSFER_CHUNK = 64 * 1024;
+
+    // Период проверки остановившихся передач
+    private static final long WATCHDOG_INTERVAL_MILLIS = 1000;
+
+    // Длина токена сессии в байтах
+    private static final int TOKEN_BYTES = 24;
+
+    private final String host;
+    private final int port;
+    private final AttachmentStore store;
+    private final ExecutorService workers;
+    private final SecureRandom random = new SecureRandom();
+
+    // Токены сессий, выданные сервером чата вошедшим пользователям: токен -> имя пользователя
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    // Обслуживаемые соединения -> время последнего продвижения (System.nanoTime())
+    private final Map<SocketChannel, Long> active = new ConcurrentHashMap<>();
+
+    /**
+     * @param host    Адрес канала вложений (пустая строка - все адреса).
+     * @param port    Порт канала вложений.
+     * @param store   Хранилище вложений.
+     * @param workers Количество потоков, обслуживающих передачи.
+     */
+    public AttachmentServer(String host, int port, AttachmentStore store, int workers) {
+        this.host = host;
+        this.port = port;
+        this.store = store;
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "attachment-worker-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Метод для запуска приема соединений в отдельном фоновом потоке.
+     */
+    public void start() {
+        store.scheduleMaintenance(this::closeStalled, WATCHDOG_INTERVAL_MILLIS);
+        Thread thread = new Thread(this, "attachment-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Метод для выдачи токена сессии пользователю, вошедшему в чат.
+     *
+     * @param owner Имя пользователя, которому принадлежат загрузки этого токена.
+     * @return Токен, который клиент передает командой {@code AUTH}.
+     */
+    public String issueToken(String owner) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tokens.put(token, owner);
+        return token;
+    }
+
+    /**
+     * Метод для отзыва токена при выходе пользователя из чата.
+     * Уже открытые соединения канала вложений дорабатывают до конца.
+     */
+    public void revokeToken(String token) {
+        tokens.remove(token);
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+            logger.info("Attachment channel is listening on {}:{}", host.isEmpty() ? "*" : host, port);
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                workers.execute(() -> serve(channel));
+            }
+        } catch (IOException ex) {
+            logger.warn("Attachment channel stopped", ex);
+        }
+    }
+
+    /**
+     * Метод для обработки команд одного соединения до его закрытия.
+     */
+    private void serve(SocketChannel channel) {
+        active.put(channel, System.nanoTime());
+        try (channel) {
+            channel.socket().setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            InputStream in = channel.socket().getInputStream();
+            String command = readCommand(in);
+            String owner = command != null && command.startsWith("AUTH ") ? tokens.get(command.substring(5)) : null;
+            if (owner == null) {
+                reply(channel, "ERR unauthorized");
+                return;
+            }
+            while ((command = readCommand(in)) != null) {
+                progress(channel);
+                if (!execute(channel, owner, command.split(" "))) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            logger.debug("Attachment connection idle, closing");
+        } catch (ClosedChannelException ex) {
+            logger.debug("Attachment transfer stalled, connection closed");
+        } catch (IOException ex) {
+            logger.debug("Attachment connection failed", ex);
+        } finally {
+            active.remove(channel);
+        }
+    }
+
+    private void progress(SocketChannel channel) {
+        active.put(channel, System.nanoTime());
+    }
+
+    /**
+     * Метод для закрытия соединений, в которых передача не продвигается:
+     * {@code transferFrom} и {@code transferTo} не учитывают таймаут сокета.
+     */
+    private void closeStalled() {
+        long limit = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MILLIS);
+        for (Map.Entry<SocketChannel, Long> entry : active.entrySet()) {
+            if (entry.getValue() - limit < 0) {
+                try {
+                    entry.getKey().close();
+                } catch (IOException ignored) {
+                    // Соединение уже закрыто
+                }
+            }
+        }
+    }
+
+    /**
+     * Метод для выполнения одной команды.
+     *
+     * @param owner Имя пользователя, которому выдан токен соединения.
+     * @return false, если соединение нужно закрыть.
+     */
+    private boolean execute(SocketChannel channel, String owner, String[] args) throws IOException {
+        try {
+            switch (args[0]) {
+                case "STAT":
+                    reply(channel, "OFFSET " + store.uploadOffset(ownedUploadId(owner, args[1])));
+                    return true;
+                case "PUT":
+                    return upload(channel, ownedUploadId(owner, args[1]), Long.parseLong(args[2]), Long.parseLong(args[3]));
+                case "COMMIT":
+                    reply(channel, "OK " + store.commit(ownedUploadId(owner, args[1]), Long.parseLong(args[2])));
+                    return true;
+                case "GET":
+                    return download(channel, args[1], Long.parseLong(args[2]));
+                case "THUMB":
+                    return sendThumbnail(channel, args[1]);
+                default:
+                    reply(channel, "ERR unknown command");
+                    return false;
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            reply(channel, "ERR malformed command");
+            return false;
+        } catch (IOException ex) {
+            reply(channel, "ERR " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Метод для приема одной части загрузки.
+     */
+    private boolean upload(SocketChannel channel, String uploadId, long offset, long length) throws IOException {
+        long current = store.uploadOffset(uploadId);
+        if (offset != current || length < 0 || offset + length > store.getMaxBytes()) {
+            // Тело части уже идет следом, поэтому соединение закрывается
+            reply(channel, "ERR expected offset " + current);
+            return false;
+        }
+        long end = offset + length;
+        try {
+            store.reserveUpload(uploadId, end);
+        } catch (IOException ex) {
+            reply(channel, "ERR " + ex.getMessage());
+            return false;
+        }
+        long position = offset;
+        try (FileChannel file = store.openUpload(uploadId)) {
+            while (position < end) {
+                long transferred = file.transferFrom(channel, position, Math.min(TRANSFER_CHUNK, end - position));
+                if (transferred <= 0) {
+                    // Клиент отключился, принятая часть сохраняется для продолжения загрузки
+                    throw new EOFException("Upload " + uploadId + " interrupted at " + position);
+                }
+                position += transferred;
+                progress(channel);
+            }
+        } finally {
+            store.uploadWritten(uploadId, position);
+        }
+        reply(channel, "OFFSET " + (offset + length));
+        return true;
+    }
+
+    /**
+     * Метод для отправки вложения начиная с указанного смещения.
+     */
+    private boolean download(SocketChannel channel, String id, long offset) throws IOException {
+        if (!store.exists(id)) {
+            reply(channel, "ERR not found");
+            return false;
+        }
+        try (FileChannel file = store.openForRead(id)) {
+            long size = file.size();
+            if (offset < 0 || offset > size) {
+                reply(channel, "ERR bad offset");
+                return false;
+            }
+            reply(channel, "OK " + size);
+            long position = offset;
+            while (position < size) {
+                position += file.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), channel);
+                progress(channel);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Метод для отправки миниатюры вложения.
+     */
+    private boolean sendThumbnail(SocketChannel channel, String id) throws IOException {
+        byte[] thumbnail = store.exists(id) ? store.thumbnail(id) : null;
+        if (thumbnail == null) {
+            reply(channel, "ERR no thumbnail");
+            return false;
+        }
+        reply(channel, "OK " + thumbnail.length);
+        ByteBuffer buffer = ByteBuffer.wrap(thumbnail);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return true;
+    }
+
+    /**
+     * Метод для получения идентификатора загрузки в хранилище: хеш имени владельца
+     * и идентификатора клиента, поэтому одинаковые {@code uploadId} разных пользователей
+     * не пересекаются.
+     */
+    private static String ownedUploadId(String owner, String uploadId) throws IOException {
+        if (!AttachmentStore.isValidId(uploadId)) {
+            throw new IOException("Invalid id: " + uploadId);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((owner + "\n" + uploadId).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Метод для чтения строки команды без буферизации, чтобы не захватить байты файла.
+     *
+     * @return Команда или null, если клиент закрыл соединение.
+     */
+    private static String readCommand(InputStream in) throws IOException {
+        StringBuilder command = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return command.length() == 0 ? null : command.toString();
+            }
+            if (command.length() >= MAX_COMMAND_LENGTH) {
+                throw new IOException("Command too long");
+            }
+            command.append((char) b);
+        }
+        return command.toString().trim();
+    }
+
+    private static void reply(SocketChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
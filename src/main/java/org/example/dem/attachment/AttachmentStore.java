@@ -0,0 +1,443 @@
+package org.example.dem.attachment;
+
+import org.example.dem.exception.ServerException;
+import org.example.dem.metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище вложений на диске сервера с адресацией по содержимому.
+ *
+ * <p>Загрузка идет в файл {@code uploads/<uploadId>.part}, который дописывается частями;
+ * текущий размер файла и есть смещение, с которого клиент продолжает прерванную загрузку.
+ * Число незавершенных загрузок и их общий объем ограничены, а загрузки без новых частей
+ * дольше {@code staleUploadAge} периодически удаляются, чтобы брошенные файлы не заполнили диск.
+ * После завершения считается SHA-256 содержимого, и файл переносится в {@code files/<хэш>}.
+ * Если такое содержимое уже есть, новая копия удаляется, поэтому одна картинка,
+ * разосланная многим пользователям, хранится и уменьшается один раз.
+ *
+ * <p>Каждое сообщение со ссылкой на вложение увеличивает счетчик ссылок на время хранения
+ * {@code retention}. Вложения без ссылок удаляются сборщиком мусора, когда с момента
+ * последнего освобождения прошло то же время хранения. Счетчики не сохраняются на диск:
+ * после перезапуска каждое вложение получает полный срок хранения, которого не меньше,
+ * чем оставалось у любой ссылки до перезапуска.
+ *
+ * <p>Для изображений при завершении загрузки строится миниатюра {@code thumbs/<хэш>.jpg};
+ * недавно запрошенные миниатюры хранятся в ограниченном кэше в памяти.
+ */
+public class AttachmentStore {
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentStore.class);
+
+    // Допустимые идентификаторы загрузок и вложений (без разделителей пути)
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    // Период запуска сборщика мусора
+    private static final long GC_INTERVAL_SECONDS = 60;
+
+    // Размер буфера для подсчета хэша
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+    private final Path uploads;
+    private final Path files;
+    private final Path thumbs;
+    private final long maxBytes;
+    private final Duration retention;
+    private final int maxPendingUploads;
+    private final long maxPendingBytes;
+    private final Duration staleUploadAge;
+    private final ThumbnailCache thumbnailCache;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    // Вложения в хранилище: хэш -> счетчик ссылок (доступ под блокировкой this)
+    private final Map<String, Blob> blobs = new HashMap<>();
+
+    // Незавершенные загрузки: uploadId -> принятые и зарезервированные байты (доступ под блокировкой this)
+    private final Map<String, Long> pendingUploads = new HashMap<>();
+    private long pendingBytes;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "attachment-gc");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Счетчик ссылок на одно вложение.
+     */
+    private static class Blob {
+        int references;
+        long releasedAt;
+
+        Blob(long releasedAt) {
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    /**
+     * @param directory           Каталог хранилища.
+     * @param maxBytes            Максимальный размер одного вложения.
+     * @param retention           Время хранения ссылки из сообщения и вложения без ссылок.
+     * @param thumbnailCacheBytes Максимальный объем миниатюр в памяти.
+     * @param maxPendingUploads   Максимальное число незавершенных загрузок.
+     * @param maxPendingBytes     Максимальный общий объем незавершенных загрузок.
+     * @param staleUploadAge      Время без новых частей, после которого загрузка удаляется.
+     */
+    public AttachmentStore(Path directory, long maxBytes, Duration retention, long thumbnailCacheBytes,
+                           int maxPendingUploads, long maxPendingBytes, Duration staleUploadAge) {
+        this.uploads = directory.resolve("uploads");
+        this.files = directory.resolve("files");
+        this.thumbs = directory.resolve("thumbs");
+        this.maxBytes = maxBytes;
+        this.retention = retention;
+        this.maxPendingUploads = maxPendingUploads;
+        this.maxPendingBytes = maxPendingBytes;
+        this.staleUploadAge = staleUploadAge;
+        this.thumbnailCache = new ThumbnailCache(thumbnailCacheBytes);
+        try {
+            Files.createDirectories(uploads);
+            Files.createDirectories(files);
+            Files.createDirectories(thumbs);
+        } catch (IOException ex) {
+            throw new ServerException("Error creating attachment directory " + directory, ex);
+        }
+        removeStaleUploads();
+        loadPendingUploads();
+        loadBlobs();
+        scheduler.scheduleAtFixedRate(this::collectGarbage, GC_INTERVAL_SECONDS, GC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::removeStaleUploads, GC_INTERVAL_SECONDS, GC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Метод для периодического запуска служебной задачи на планировщике хранилища.
+     */
+    void scheduleMaintenance(Runnable task, long periodMillis) {
+        scheduler.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Количество уже принятых байт загрузки (0, если загрузка еще не начиналась).
+     */
+    public long uploadOffset(String uploadId) throws IOException {
+        Path part = uploadFile(uploadId);
+        return Files.exists(part) ? Files.size(part) : 0;
+    }
+
+    /**
+     * Метод для резервирования места под часть загрузки до приема ее байт.
+     *
+     * @param uploadId Идентификатор загрузки.
+     * @param end      Смещение конца части.
+     * @throws IOException Если превышено число или общий объем незавершенных загрузок.
+     */
+    public synchronized void reserveUpload(String uploadId, long end) throws IOException {
+        Long current = pendingUploads.get(uploadId);
+        if (current == null && pendingUploads.size() >= maxPendingUploads) {
+            throw new IOException("too many pending uploads");
+        }
+        long added = end - (current == null ? 0 : current);
+        if (added > 0 && pendingBytes + added > maxPendingBytes) {
+            throw new IOException("pending uploads limit reached");
+        }
+        pendingUploads.put(uploadId, Math.max(end, current == null ? 0 : current));
+        pendingBytes += Math.max(added, 0);
+    }
+
+    /**
+     * Метод для возврата неиспользованного резерва после приема части.
+     *
+     * @param uploadId Идентификатор загрузки.
+     * @param written  Фактический размер файла загрузки.
+     */
+    public synchronized void uploadWritten(String uploadId, long written) {
+        Long reserved = pendingUploads.get(uploadId);
+        if (reserved != null && reserved > written) {
+            pendingUploads.put(uploadId, written);
+            pendingBytes -= reserved - written;
+        }
+    }
+
+    /**
+     * Метод для открытия файла загрузки на запись.
+     */
+    public FileChannel openUpload(String uploadId) throws IOException {
+        return FileChannel.open(uploadFile(uploadId), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Метод для завершения загрузки.
+     *
+     * @param uploadId Идентификатор загрузки.
+     * @param size     Размер файла, который ожидает клиент.
+     * @return Идентификатор вложения (хэш содержимого).
+     * @throws IOException Если размер не совпадает или файл не удалось перенести.
+     */
+    public String commit(String uploadId, long size) throws IOException {
+        Path part = uploadFile(uploadId);
+        if (!Files.exists(part)) {
+            throw new IOException("Upload not found");
+        }
+        long actual = Files.size(part);
+        if (actual != size) {
+            throw new IOException("Upload has " + actual + " bytes, expected " + size);
+        }
+        String id = hash(part);
+        synchronized (this) {
+            forgetUpload(uploadId);
+            if (blobs.containsKey(id)) {
+                // Такое содержимое уже есть, повторная копия не нужна
+                Files.delete(part);
+                metrics.attachmentDeduplicated();
+                blobs.get(id).releasedAt = System.currentTimeMillis();
+                return id;
+            }
+            Files.move(part, files.resolve(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            blobs.put(id, new Blob(System.currentTimeMillis()));
+        }
+        createThumbnail(id);
+        return id;
+    }
+
+    /**
+     * Метод для добавления ссылки на вложение из сообщения.
+     * Ссылка освобождается автоматически по истечении времени хранения.
+     *
+     * @return false, если вложения нет в хранилище.
+     */
+    public boolean reference(String id) {
+        synchronized (this) {
+            Blob blob = blobs.get(id);
+            if (blob == null) {
+                return false;
+            }
+            blob.references++;
+        }
+        scheduler.schedule(() -> release(id), retention.toMillis(), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private synchronized void release(String id) {
+        Blob blob = blobs.get(id);
+        if (blob != null && --blob.references == 0) {
+            blob.releasedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return true, если вложение с таким идентификатором есть в хранилище.
+     */
+    public synchronized boolean exists(String id) {
+        return blobs.containsKey(id);
+    }
+
+    /**
+     * @return Размер вложения в байтах.
+     */
+    public long size(String id) throws IOException {
+        checkId(id);
+        return Files.size(files.resolve(id));
+    }
+
+    /**
+     * Метод для открытия вложения на чтение.
+     */
+    public FileChannel openForRead(String id) throws IOException {
+        checkId(id);
+        return FileChannel.open(files.resolve(id), StandardOpenOption.READ);
+    }
+
+    /**
+     * @return true, если для вложения есть миниатюра.
+     */
+    public boolean hasThumbnail(String id) {
+        return isValidId(id) && Files.exists(thumbs.resolve(id + ".jpg"));
+    }
+
+    /**
+     * Метод для получения миниатюры: сначала из кэша в памяти, затем с диска.
+     *
+     * @return Миниатюра в формате JPEG или null, если вложение не является изображением.
+     */
+    public byte[] thumbnail(String id) throws IOException {
+        checkId(id);
+        byte[] thumbnail = thumbnailCache.get(id);
+        if (thumbnail == null) {
+            Path file = thumbs.resolve(id + ".jpg");
+            if (!Files.exists(file)) {
+                return null;
+            }
+            thumbnail = Files.readAllBytes(file);
+            thumbnailCache.put(id, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * @return true, если строку можно использовать как идентификатор загрузки или вложения.
+     */
+    public static boolean isValidId(String id) {
+        return id != null && ID_PATTERN.matcher(id).matches();
+    }
+
+    private void forgetUpload(String uploadId) {
+        Long reserved = pendingUploads.remove(uploadId);
+        if (reserved != null) {
+            pendingBytes -= reserved;
+        }
+    }
+
+    private Path uploadFile(String uploadId) throws IOException {
+        checkId(uploadId);
+        return uploads.resolve(uploadId + ".part");
+    }
+
+    private static void checkId(String id) throws IOException {
+        if (!isValidId(id)) {
+            throw new IOException("Invalid id: " + id);
+        }
+    }
+
+    /**
+     * Метод для построения миниатюры нового вложения, если это изображение.
+     */
+    private void createThumbnail(String id) {
+        try {
+            byte[] thumbnail = Thumbnails.create(files.resolve(id));
+            if (thumbnail != null) {
+                Files.write(thumbs.resolve(id + ".jpg"), thumbnail);
+                thumbnailCache.put(id, thumbnail);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Без миниатюры вложение остается доступным для скачивания
+            logger.warn("Unable to create thumbnail for {}", id, ex);
+        }
+    }
+
+    /**
+     * Метод для подсчета SHA-256 содержимого файла.
+     */
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Метод для удаления вложений без ссылок, срок хранения которых истек.
+     */
+    private void collectGarbage() {
+        long limit = System.currentTimeMillis() - retention.toMillis();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Blob>> iterator = blobs.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Blob> entry = iterator.next();
+                Blob blob = entry.getValue();
+                if (blob.references > 0 || blob.releasedAt > limit) {
+                    continue;
+                }
+                String id = entry.getKey();
+                try {
+                    Files.deleteIfExists(files.resolve(id));
+                    Files.deleteIfExists(thumbs.resolve(id + ".jpg"));
+                } catch (IOException ex) {
+                    logger.warn("Error removing attachment {}", id, ex);
+                    continue;
+                }
+                iterator.remove();
+                thumbnailCache.remove(id);
+                metrics.attachmentCollected();
+            }
+        }
+    }
+
+    /**
+     * Метод для загрузки списка вложений, сохраненных до перезапуска.
+     */
+    private void loadBlobs() {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(files)) {
+            synchronized (this) {
+                for (Path file : stream) {
+                    blobs.put(file.getFileName().toString(), new Blob(now));
+                }
+            }
+        } catch (IOException ex) {
+            throw new ServerException("Error reading attachment directory " + files, ex);
+        }
+    }
+
+    /**
+     * Метод для учета незавершенных загрузок, сохраненных до перезапуска.
+     */
+    private void loadPendingUploads() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploads, "*.part")) {
+            synchronized (this) {
+                for (Path part : stream) {
+                    String name = part.getFileName().toString();
+                    long size = Files.size(part);
+                    pendingUploads.put(name.substring(0, name.length() - ".part".length()), size);
+                    pendingBytes += size;
+                }
+            }
+        } catch (IOException ex) {
+            throw new ServerException("Error reading upload directory " + uploads, ex);
+        }
+    }
+
+    /**
+     * Метод для удаления незавершенных загрузок, в которые давно не приходили новые части.
+     */
+    private void removeStaleUploads() {
+        Instant limit = Instant.now().minus(staleUploadAge);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploads, "*.part")) {
+            for (Path part : stream) {
+                if (Files.getLastModifiedTime(part).toInstant().isBefore(limit)) {
+                    String name = part.getFileName().toString();
+                    synchronized (this) {
+                        Files.deleteIfExists(part);
+                        forgetUpload(name.substring(0, name.length() - ".part".length()));
+                    }
+                    logger.debug("Removed stale upload {}", name);
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Error removing stale uploads", ex);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.dem.attachment;
+
+import org.example.dem.metrics.ServerMetrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ограниченный по объему кэш миниатюр в памяти с вытеснением давно не использованных (LRU).
+ * Ключ - хэш содержимого вложения, поэтому одна картинка, разосланная многим
+ * получателям, занимает в кэше одну запись.
+ */
+class ThumbnailCache {
+    private final long maxBytes;
+    private final Map<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private long usedBytes;
+
+    /**
+     * @param maxBytes Максимальный суммарный размер миниатюр в кэше.
+     */
+    ThumbnailCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return Миниатюра или null, если ее нет в кэше.
+     */
+    synchronized byte[] get(String id) {
+        byte[] thumbnail = entries.get(id);
+        if (thumbnail != null) {
+            metrics.thumbnailCacheHit();
+        } else {
+            metrics.thumbnailCacheMiss();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Метод для добавления миниатюры с вытеснением самых старых записей сверх лимита.
+     */
+    synchronized void put(String id, byte[] thumbnail) {
+        if (thumbnail.length > maxBytes) {
+            return;
+        }
+        byte[] previous = entries.put(id, thumbnail);
+        usedBytes += thumbnail.length - (previous != null ? previous.length : 0);
+        Iterator<byte[]> eldest = entries.values().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().length;
+            eldest.remove();
+            metrics.thumbnailCacheEviction();
+        }
+    }
+
+    synchronized void remove(String id) {
+        byte[] previous = entries.remove(id);
+        if (previous != null) {
+            usedBytes -= previous.length;
+        }
+    }
+}
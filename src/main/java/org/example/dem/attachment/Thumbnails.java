@@ -0,0 +1,74 @@
+package org.example.dem.attachment;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Построение миниатюр изображений.
+ */
+final class Thumbnails {
+    // Наибольшая сторона миниатюры в пикселях
+    static final int MAX_SIDE = 160;
+
+    // Изображения с большим количеством пикселей не уменьшаются (защита от огромных картинок)
+    private static final long MAX_SOURCE_PIXELS = 100_000_000L;
+
+    private Thumbnails() {
+    }
+
+    /**
+     * Метод для построения миниатюры в формате JPEG.
+     * Большие изображения читаются с прореживанием, поэтому в память не загружается полный кадр.
+     *
+     * @param file Файл вложения.
+     * @return Миниатюра или null, если файл не является поддерживаемым изображением.
+     */
+    static byte[] create(Path file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (MAX_SIDE * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage source = reader.read(0, param);
+
+                double scale = Math.min(1.0, (double) MAX_SIDE / Math.max(source.getWidth(), source.getHeight()));
+                int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * scale));
+                int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * scale));
+                BufferedImage thumbnail = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+                Graphics2D graphics = thumbnail.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+                graphics.dispose();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(thumbnail, "jpg", out);
+                return out.toByteArray();
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.dem.capture;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Формат файла записи трафика.
+ *
+ * <p>Заголовок: магическая строка {@code CHCAP}, байт версии и время начала записи
+ * (миллисекунды с эпохи). Далее идут записи: байт типа ({@link #CONNECT}, {@link #LINE},
+ * {@link #DISCONNECT}), номер соединения (varint), разница с временем предыдущей записи
+ * в наносекундах (zigzag varlong) и для строк - длина (varint) и байты UTF-8.
+ */
+final class CaptureFormat {
+    static final byte[] MAGIC = {'C', 'H', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+
+    static final int CONNECT = 1;
+    static final int LINE = 2;
+    static final int DISCONNECT = 3;
+
+    private CaptureFormat() {
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in capture");
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
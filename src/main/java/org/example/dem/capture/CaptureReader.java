@@ -0,0 +1,75 @@
+package org.example.dem.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Последовательное чтение файла записи трафика.
+ * Для экономии памяти запись переиспользуется: после вызова {@link #next()}
+ * поля {@link #type}, {@link #connectionId}, {@link #timestamp} и {@link #line}
+ * описывают текущее событие.
+ */
+class CaptureReader implements AutoCloseable {
+    private final DataInputStream in;
+    private final long startEpochMillis;
+
+    int type;
+    int connectionId;
+    // Время события в наносекундах от начала записи
+    long timestamp;
+    String line;
+
+    CaptureReader(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        byte[] magic = new byte[CaptureFormat.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, CaptureFormat.MAGIC)) {
+            throw new IOException("Not a traffic capture: " + file);
+        }
+        int version = in.readUnsignedByte();
+        if (version != CaptureFormat.VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+        startEpochMillis = in.readLong();
+    }
+
+    long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * Метод для чтения следующего события.
+     *
+     * @return false, если файл закончился.
+     */
+    boolean next() throws IOException {
+        try {
+            type = in.readUnsignedByte();
+            connectionId = (int) CaptureFormat.readVarLong(in);
+            timestamp += CaptureFormat.unzigzag(CaptureFormat.readVarLong(in));
+            line = null;
+            if (type == CaptureFormat.LINE) {
+                byte[] bytes = new byte[(int) CaptureFormat.readVarLong(in)];
+                in.readFully(bytes);
+                line = new String(bytes, StandardCharsets.UTF_8);
+            } else if (type != CaptureFormat.CONNECT && type != CaptureFormat.DISCONNECT) {
+                throw new IOException("Unknown capture record type " + type);
+            }
+            return true;
+        } catch (EOFException ex) {
+            // Файл закончился (или последняя запись обрезана при остановке сервера)
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,176 @@
+package org.example.dem.capture;
+
+import org.example.dem.exception.ServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запись входящего трафика сервера в компактный бинарный файл ({@link CaptureFormat}).
+ * Потоки клиентов только кладут событие в ограниченную очередь (без ожидания);
+ * кодирование и запись на диск выполняет отдельный фоновый поток.
+ * Если очередь переполнена, событие отбрасывается и учитывается в счетчике потерь.
+ */
+public class TrafficRecorder implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    // Специальное событие для остановки потока записи
+    private static final Record POISON = new Record(0, 0, 0, null);
+
+    private final BlockingQueue<Record> queue;
+    private final DataOutputStream out;
+    private final Thread writerThread;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+
+    // Время предыдущей записанной записи (используется только потоком записи)
+    private long lastTimestamp;
+
+    /**
+     * @param file      Файл для записи.
+     * @param queueSize Максимальное количество событий, ожидающих записи.
+     */
+    public TrafficRecorder(Path file, int queueSize) {
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+            out.write(CaptureFormat.MAGIC);
+            out.writeByte(CaptureFormat.VERSION);
+            out.writeLong(System.currentTimeMillis());
+        } catch (IOException ex) {
+            throw new ServerException("Error opening capture file " + file, ex);
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+        lastTimestamp = System.nanoTime();
+        writerThread = new Thread(this::drain, "traffic-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Recording inbound traffic to {}", file);
+    }
+
+    public void recordConnect(int connectionId) {
+        offer(new Record(CaptureFormat.CONNECT, connectionId, System.nanoTime(), null));
+    }
+
+    public void recordLine(int connectionId, String line) {
+        offer(new Record(CaptureFormat.LINE, connectionId, System.nanoTime(), line));
+    }
+
+    public void recordDisconnect(int connectionId) {
+        offer(new Record(CaptureFormat.DISCONNECT, connectionId, System.nanoTime(), null));
+    }
+
+    /**
+     * @return Количество событий, отброшенных из-за переполнения очереди.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void offer(Record record) {
+        if (closed || !queue.offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Метод потока записи: забирает события пачками и кодирует их в файл.
+     */
+    private void drain() {
+        List<Record> batch = new ArrayList<>(1024);
+        try {
+            while (true) {
+                Record first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    out.flush();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 1023);
+                for (Record record : batch) {
+                    if (record == POISON) {
+                        out.flush();
+                        return;
+                    }
+                    write(record);
+                }
+                batch.clear();
+            }
+        } catch (IOException ex) {
+            logger.error("Traffic capture stopped", ex);
+            closed = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        out.writeByte(record.type);
+        CaptureFormat.writeVarLong(out, record.connectionId);
+        CaptureFormat.writeVarLong(out, CaptureFormat.zigzag(record.timestamp - lastTimestamp));
+        lastTimestamp = record.timestamp;
+        if (record.type == CaptureFormat.LINE) {
+            byte[] bytes = record.line.getBytes(StandardCharsets.UTF_8);
+            CaptureFormat.writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Метод для записи оставшихся событий и закрытия файла.
+     */
+    @Override
+    public void close() {
+        // Флаг closed выставляет и поток записи после ошибки, но файл в этом случае тоже нужно закрыть
+        if (!shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        closed = true;
+        try {
+            // Остановившийся после ошибки поток уже не освободит место в очереди
+            if (writerThread.isAlive() && queue.offer(POISON, 5, TimeUnit.SECONDS)) {
+                writerThread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.close();
+        } catch (IOException ex) {
+            throw new ServerException("Error closing capture file", ex);
+        }
+        if (dropped.get() > 0) {
+            logger.warn("Traffic capture dropped {} events", dropped.get());
+        }
+    }
+
+    /**
+     * Одно событие в очереди на запись.
+     */
+    private static final class Record {
+        final int type;
+        final int connectionId;
+        final long timestamp;
+        final String line;
+
+        Record(int type, int connectionId, long timestamp, String line) {
+            this.type = type;
+            this.connectionId = connectionId;
+            this.timestamp = timestamp;
+            this.line = line;
+        }
+    }
+}
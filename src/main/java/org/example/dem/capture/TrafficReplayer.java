@@ -0,0 +1,220 @@
+package org.example.dem.capture;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Воспроизведение записанного трафика на сервере чата с заданной скоростью.
+ * События читаются и отправляются одним потоком строго в порядке записи,
+ * поэтому порядок строк внутри каждого соединения сохраняется.
+ * Ответы сервера вычитываются отдельным потоком и отбрасываются,
+ * чтобы сервер не блокировался на записи.
+ *
+ * <p>Строки записываются уже распакованными, а воспроизводятся без TLS и без сжатия:
+ * из строки входа удаляется запрос {@code deflate}, иначе сервер включил бы распаковку
+ * и не смог бы разобрать следующие строки. Поэтому при воспроизведении не нагружаются
+ * шифрование и сжатие, а остальные возможности ({@code user_ids}) сохраняются.
+ *
+ * <p>Пример запуска:
+ * {@code java -cp ... org.example.dem.capture.TrafficReplayer --file=capture.bin --speed=10}
+ * (скорость: 1, 10, любое положительное число или max).
+ */
+public class TrafficReplayer {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        Path file = Path.of(options.getOrDefault("file", "capture.bin"));
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "12345"));
+        String speedOption = options.getOrDefault("speed", "1");
+        double speed = speedOption.equals("max") ? 0 : Double.parseDouble(speedOption);
+
+        new TrafficReplayer(file, new InetSocketAddress(host, port), speed).replay();
+    }
+
+    private final Path file;
+    private final InetSocketAddress server;
+    // Множитель скорости (0 - без пауз)
+    private final double speed;
+
+    private final Map<Integer, SocketChannel> connections = new HashMap<>();
+    private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private final Selector drainSelector;
+    private volatile boolean running = true;
+
+    public TrafficReplayer(Path file, InetSocketAddress server, double speed) throws IOException {
+        this.file = file;
+        this.server = server;
+        this.speed = speed;
+        this.drainSelector = Selector.open();
+    }
+
+    /**
+     * Метод для воспроизведения всего файла.
+     */
+    public void replay() throws IOException, InterruptedException {
+        Thread drainThread = new Thread(this::drain, "replay-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+
+        long records = 0;
+        long lines = 0;
+        long maxLagNanos = 0;
+        long replayStart = System.nanoTime();
+        try (CaptureReader reader = new CaptureReader(file)) {
+            while (reader.next()) {
+                // Ждем момента, когда событие должно произойти с учетом скорости
+                if (speed > 0) {
+                    long dueAt = replayStart + (long) (reader.timestamp / speed);
+                    long wait = dueAt - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        maxLagNanos = Math.max(maxLagNanos, -wait);
+                    }
+                }
+
+                records++;
+                switch (reader.type) {
+                    case CaptureFormat.CONNECT:
+                        connect(reader.connectionId);
+                        break;
+                    case CaptureFormat.LINE:
+                        send(reader.connectionId, reader.line);
+                        lines++;
+                        break;
+                    default:
+                        disconnect(reader.connectionId);
+                        break;
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - replayStart) / 1e9;
+
+        // Даем серверу доотправить ответы и закрываем оставшиеся соединения
+        TimeUnit.MILLISECONDS.sleep(500);
+        for (SocketChannel channel : connections.values()) {
+            channel.close();
+        }
+        running = false;
+        drainSelector.wakeup();
+        drainThread.join();
+
+        System.out.printf("Replayed %d records (%d lines) in %.2f s, max lag %d ms%n",
+                records, lines, elapsed, TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+    }
+
+    private void connect(int connectionId) throws IOException {
+        SocketChannel channel = SocketChannel.open(server);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        connections.put(connectionId, channel);
+        newChannels.add(channel);
+        drainSelector.wakeup();
+    }
+
+    private void send(int connectionId, String line) throws IOException {
+        SocketChannel channel = connections.get(connectionId);
+        if (channel == null) {
+            // Начало соединения не попало в запись
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap((withoutCompression(line) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * @return Строка входа без запроса сжатия; остальные строки без изменений.
+     */
+    static String withoutCompression(String line) {
+        if (!line.contains("\"deflate\"")) {
+            return line;
+        }
+        JSONObject json;
+        try {
+            json = new JSONObject(line);
+        } catch (JSONException ex) {
+            // Сервер получил эту строку такой же и отклонил ее
+            return line;
+        }
+        JSONArray features = json.optJSONArray("features");
+        if (!json.optString("type").equals("login") || features == null) {
+            return line;
+        }
+        JSONArray kept = new JSONArray();
+        for (Object feature : features) {
+            if (!"deflate".equals(feature)) {
+                kept.put(feature);
+            }
+        }
+        return json.put("features", kept).toString();
+    }
+
+    private void disconnect(int connectionId) throws IOException {
+        SocketChannel channel = connections.remove(connectionId);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Метод потока, который вычитывает и отбрасывает ответы сервера.
+     */
+    private void drain() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (running) {
+                SocketChannel channel;
+                while ((channel = newChannels.poll()) != null) {
+                    if (channel.isOpen()) {
+                        channel.register(drainSelector, SelectionKey.OP_READ);
+                    }
+                }
+                drainSelector.select(100);
+                Iterator<SelectionKey> keys = drainSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        buffer.clear();
+                        if (((SocketChannel) key.channel()).read(buffer) < 0) {
+                            key.cancel();
+                        }
+                    } catch (IOException ex) {
+                        key.cancel();
+                    }
+                }
+            }
+            drainSelector.close();
+        } catch (IOException ex) {
+            System.err.println("Drain thread stopped: " + ex.getMessage());
+        }
+    }
+}
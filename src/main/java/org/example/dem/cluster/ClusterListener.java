@@ -0,0 +1,33 @@
+package org.example.dem.cluster;
+
+import java.util.List;
+
+/**
+ * Обратные вызовы узла кластера в локальный сервер чата.
+ */
+public interface ClusterListener {
+    /**
+     * Метод для рассылки сообщения, пришедшего с другого узла, локальным клиентам.
+     *
+     * @param message Сообщение в формате JSON.
+     */
+    void onRemoteBroadcast(String message);
+
+    /**
+     * Метод для доставки личного сообщения, пришедшего с другого узла.
+     *
+     * @param recipients Имена получателей на этом узле.
+     * @param message    Сообщение в формате JSON.
+     */
+    void onRemotePrivate(List<String> recipients, String message);
+
+    /**
+     * Метод, вызываемый при изменении состава пользователей на других узлах.
+     */
+    void onPresenceChanged();
+
+    /**
+     * @return Имена пользователей, подключенных к этому узлу.
+     */
+    List<String> localUsers();
+}
@@ -0,0 +1,360 @@
+package org.example.dem.cluster;
+
+import org.example.dem.exception.ServerException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Узел кластера серверов чата.
+ *
+ * <p>Узлы соединяются по TCP по списку из {@code cluster.peers}
+ * (формат {@code id@host:port,...}). Чтобы между двумя узлами было ровно одно
+ * соединение, подключается узел с меньшим идентификатором, второй узел принимает.
+ * Общие сообщения пересылаются каждому узлу один раз, а не каждому удаленному
+ * пользователю; личные сообщения отправляются только узлам получателей по каталогу
+ * присутствия, по одному кадру на узел. При потере соединения с узлом его пользователи удаляются из каталога.
+ *
+ * <p>Соединения принимаются только на адресе {@code cluster.host} и только от узлов
+ * из {@code cluster.peers}: приветствие с другим идентификатором отклоняется, а сокет,
+ * не приславший приветствие за {@link #HELLO_TIMEOUT_MILLIS}, закрывается.
+ *
+ * <p>Протокол между узлами - строки JSON: {@code node_hello}, {@code presence_sync},
+ * {@code presence_join}, {@code presence_leave}, {@code relay_broadcast}, {@code relay_private}
+ * и {@code ping} для проверки соединения.
+ */
+public class ClusterNode {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    // Пауза между попытками подключения к недоступному узлу
+    private static final long RECONNECT_DELAY_MILLIS = 2000;
+
+    // Время ожидания приветствия от принятого соединения
+    private static final int HELLO_TIMEOUT_MILLIS = 5000;
+
+    private final String nodeId;
+    private final String host;
+    private final int port;
+    private final List<PeerAddress> peers;
+    // Идентификаторы узлов, от которых принимаются соединения
+    private final Set<String> peerIds = new HashSet<>();
+    private final ClusterListener listener;
+    private final PresenceDirectory directory = new PresenceDirectory();
+
+    // Активные соединения: идентификатор узла -> соединение
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+
+    // Замок для согласования снимка присутствия с кадрами presence_join и presence_leave
+    private final Object presenceLock = new Object();
+
+    /**
+     * @param nodeId   Идентификатор этого узла.
+     * @param host     Адрес для соединений от других узлов.
+     * @param port     Порт для соединений от других узлов.
+     * @param peers    Список узлов в формате {@code id@host:port,...} (может включать этот узел).
+     * @param listener Обратные вызовы в локальный сервер.
+     */
+    public ClusterNode(String nodeId, String host, int port, String peers, ClusterListener listener) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+        this.peers = PeerAddress.parseList(peers);
+        this.listener = listener;
+        for (PeerAddress peer : this.peers) {
+            if (!peer.id.equals(nodeId)) {
+                peerIds.add(peer.id);
+            }
+        }
+    }
+
+    /**
+     * Метод для запуска приема соединений и подключения к узлам.
+     */
+    public void start() {
+        ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(host, port));
+        } catch (IOException ex) {
+            throw new ServerException("Error opening cluster port " + host + ":" + port, ex);
+        }
+        startDaemon("cluster-accept", () -> acceptLoop(serverSocket));
+
+        for (PeerAddress peer : peers) {
+            if (nodeId.compareTo(peer.id) < 0) {
+                startDaemon("cluster-dial-" + peer.id, () -> dialLoop(peer));
+            }
+        }
+        logger.info("Cluster node {} is listening on {}:{}", nodeId, host, port);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public PresenceDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Метод для оповещения узлов о входе локального пользователя.
+     */
+    public void userJoined(String username) {
+        sendPresence(new JSONObject().put("type", "presence_join").put("user", username));
+    }
+
+    /**
+     * Метод для оповещения узлов о выходе локального пользователя.
+     */
+    public void userLeft(String username) {
+        sendPresence(new JSONObject().put("type", "presence_leave").put("user", username));
+    }
+
+    /**
+     * Метод для пересылки общего сообщения всем узлам (по одному разу на узел).
+     *
+     * @param message Сообщение в формате JSON; кадры для клиентов собирает узел-получатель.
+     */
+    public void relayBroadcast(String message) {
+        sendToAll(new JSONObject().put("type", "relay_broadcast").put("message", message));
+    }
+
+    /**
+     * Метод для пересылки личного сообщения узлам получателей.
+     * Получатели группируются по узлам, и каждому узлу сообщение отправляется один раз
+     * вместе со списком его получателей.
+     *
+     * @param recipients Имена получателей, не найденных на этом узле.
+     * @param message    Сообщение в формате JSON; кадры для клиентов собирает узел-получатель.
+     * @return Получатели, которые не подключены ни к одному узлу.
+     */
+    public List<String> relayPrivate(List<String> recipients, String message) {
+        Map<PeerLink, JSONArray> perNode = new HashMap<>();
+        List<String> missing = new ArrayList<>(0);
+        for (String recipient : recipients) {
+            String targetNode = directory.nodeOf(recipient);
+            PeerLink link = targetNode == null ? null : links.get(targetNode);
+            if (link == null) {
+                missing.add(recipient);
+            } else {
+                perNode.computeIfAbsent(link, l -> new JSONArray()).put(recipient);
+            }
+        }
+        for (Map.Entry<PeerLink, JSONArray> entry : perNode.entrySet()) {
+            entry.getKey().send(new JSONObject().put("type", "relay_private")
+                    .put("recipients", entry.getValue()).put("message", message));
+        }
+        return missing;
+    }
+
+    /**
+     * Метод для отправки изменения присутствия. Выполняется под тем же замком, что и регистрация
+     * соединения, поэтому новый узел получает изменение либо в снимке, либо отдельным кадром после него.
+     */
+    private void sendPresence(JSONObject frame) {
+        synchronized (presenceLock) {
+            sendToAll(frame);
+        }
+    }
+
+    private void sendToAll(JSONObject frame) {
+        for (PeerLink link : links.values()) {
+            link.send(frame);
+        }
+    }
+
+    private void acceptLoop(ServerSocket serverSocket) {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ex) {
+                logger.warn("Error accepting cluster connection", ex);
+                continue;
+            }
+            try {
+                PeerLink link = new PeerLink(socket);
+                // Молчащий клиент не должен задерживать прием соединений от других узлов
+                socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+                String line = link.readLine();
+                String peerId = line == null ? null : new JSONObject(line).optString("node", null);
+                if (peerId == null || !peerIds.contains(peerId)) {
+                    logger.warn("Rejected cluster connection from {}: unknown node {}",
+                            socket.getRemoteSocketAddress(), peerId);
+                    closeQuietly(socket);
+                    continue;
+                }
+                link.setNodeId(peerId);
+                register(link);
+            } catch (SocketTimeoutException ex) {
+                logger.warn("Rejected cluster connection from {}: no node_hello in {} ms",
+                        socket.getRemoteSocketAddress(), HELLO_TIMEOUT_MILLIS);
+                closeQuietly(socket);
+            } catch (IOException | RuntimeException ex) {
+                logger.warn("Error accepting cluster connection from {}", socket.getRemoteSocketAddress(), ex);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void dialLoop(PeerAddress peer) {
+        while (true) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(peer.host, peer.port), (int) RECONNECT_DELAY_MILLIS);
+                PeerLink link = new PeerLink(socket);
+                link.setNodeId(peer.id);
+                link.send(new JSONObject().put("type", "node_hello").put("node", nodeId));
+                register(link);
+                link.awaitClosed();
+            } catch (IOException ex) {
+                logger.debug("Node {} is unreachable", peer.id);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Метод для регистрации установленного соединения и отправки локальных пользователей.
+     */
+    private void register(PeerLink link) {
+        PeerLink previous;
+        // Снимок ставится в очередь первым, до любых кадров, которые узел получит через links
+        synchronized (presenceLock) {
+            link.send(new JSONObject().put("type", "presence_sync").put("users", new JSONArray(listener.localUsers())));
+            previous = links.put(link.getNodeId(), link);
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        link.start(this);
+        logger.info("Cluster link to node {} is up", link.getNodeId());
+    }
+
+    /**
+     * Метод для обработки кадра от другого узла (вызывается потоком чтения соединения).
+     */
+    void onPeerFrame(PeerLink link, JSONObject frame) {
+        String peerId = link.getNodeId();
+        switch (frame.getString("type")) {
+            case "presence_sync":
+                List<String> users = new ArrayList<>();
+                JSONArray array = frame.getJSONArray("users");
+                for (int i = 0; i < array.length(); i++) {
+                    users.add(array.getString(i));
+                }
+                directory.replaceNode(peerId, users);
+                listener.onPresenceChanged();
+                break;
+            case "presence_join":
+                directory.put(frame.getString("user"), peerId);
+                listener.onPresenceChanged();
+                break;
+            case "presence_leave":
+                directory.remove(frame.getString("user"), peerId);
+                listener.onPresenceChanged();
+                break;
+            case "ping":
+                // Проверка соединения; достаточно того, что кадр прочитан
+                break;
+            case "relay_broadcast":
+                listener.onRemoteBroadcast(frame.getString("message"));
+                break;
+            case "relay_private":
+                List<String> recipients = new ArrayList<>();
+                JSONArray names = frame.getJSONArray("recipients");
+                for (int i = 0; i < names.length(); i++) {
+                    recipients.add(names.getString(i));
+                }
+                listener.onRemotePrivate(recipients, frame.getString("message"));
+                break;
+            default:
+                logger.warn("Unknown cluster frame from node {}: {}", peerId, frame);
+        }
+    }
+
+    /**
+     * Метод, вызываемый при закрытии соединения: пользователи узла удаляются из каталога.
+     */
+    void onLinkClosed(PeerLink link) {
+        String peerId = link.getNodeId();
+        // Соединение могло быть уже заменено новым
+        if (!links.remove(peerId, link)) {
+            return;
+        }
+        logger.warn("Cluster link to node {} is down", peerId);
+        if (directory.removeNode(peerId)) {
+            listener.onPresenceChanged();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто
+        }
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Адрес узла из списка {@code cluster.peers}.
+     */
+    static class PeerAddress {
+        final String id;
+        final String host;
+        final int port;
+
+        PeerAddress(String id, String host, int port) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+        }
+
+        static List<PeerAddress> parseList(String value) {
+            List<PeerAddress> result = new ArrayList<>();
+            for (String entry : value.split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int at = entry.indexOf('@');
+                int colon = entry.lastIndexOf(':');
+                if (at <= 0 || colon <= at) {
+                    throw new ServerException("Invalid cluster peer: " + entry + " (expected id@host:port)", null);
+                }
+                result.add(new PeerAddress(entry.substring(0, at), entry.substring(at + 1, colon),
+                        Integer.parseInt(entry.substring(colon + 1))));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.example.dem.cluster;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Соединение с одним узлом кластера. Чтение выполняет отдельный поток,
+ * запись идет через очередь и свой поток, чтобы потоки клиентов
+ * не блокировались на медленном соседнем узле.
+ *
+ * <p>Очередь на отправку ограничена: если узел не успевает принимать кадры,
+ * соединение закрывается, а не растет в памяти. Поток записи отправляет {@code ping},
+ * когда кадров нет дольше {@link #PING_INTERVAL_MILLIS}, а поток чтения закрывает
+ * соединение, если от узла ничего не пришло за {@link #READ_TIMEOUT_MILLIS}.
+ * После закрытия узел удаляет пользователей соседа из каталога присутствия.
+ */
+class PeerLink {
+    private static final Logger logger = LoggerFactory.getLogger(PeerLink.class);
+
+    // Специальный кадр для остановки потока записи
+    private static final String CLOSE = new String("close");
+
+    // Максимальное число кадров в очереди на отправку
+    private static final int MAX_QUEUED_FRAMES = 16384;
+
+    // Интервал проверки соединения, если кадров для отправки нет
+    static final long PING_INTERVAL_MILLIS = 5000;
+
+    // Время без входящих кадров, после которого соединение считается потерянным
+    static final int READ_TIMEOUT_MILLIS = 15000;
+
+    private static final String PING = new JSONObject().put("type", "ping").toString();
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final BufferedWriter out;
+    private final BlockingQueue<String> outbound = new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile String nodeId;
+
+    PeerLink(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Метод для чтения одной строки (используется при обмене приветствиями).
+     */
+    String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    /**
+     * Метод для постановки кадра в очередь на отправку.
+     * Если очередь заполнена, соединение закрывается.
+     */
+    void send(JSONObject frame) {
+        if (closed.getCount() == 0) {
+            return;
+        }
+        if (!outbound.offer(frame.toString())) {
+            logger.warn("Outbound queue to node {} is full, closing the link", nodeId);
+            close();
+        }
+    }
+
+    /**
+     * Метод для запуска потоков чтения и записи.
+     *
+     * @param node Узел, которому передаются входящие кадры.
+     */
+    void start(ClusterNode node) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        } catch (IOException ex) {
+            close();
+        }
+        Thread writer = new Thread(this::writeLoop, "cluster-writer-" + nodeId);
+        writer.setDaemon(true);
+        writer.start();
+
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    node.onPeerFrame(this, new JSONObject(line));
+                }
+            } catch (SocketTimeoutException ex) {
+                logger.warn("Node {} sent nothing for {} ms, closing the link", nodeId, READ_TIMEOUT_MILLIS);
+            } catch (IOException ex) {
+                logger.debug("Link to node {} failed", nodeId, ex);
+            } finally {
+                close();
+                node.onLinkClosed(this);
+            }
+        }, "cluster-reader-" + nodeId);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                String frame = outbound.poll(PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    frame = PING;
+                }
+                if (frame == CLOSE) {
+                    return;
+                }
+                out.write(frame);
+                out.write('\n');
+                // Сбрасываем буфер только когда очередь опустела, чтобы объединять кадры
+                if (outbound.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException ex) {
+            close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Метод для закрытия соединения.
+     */
+    void close() {
+        if (closed.getCount() == 0) {
+            return;
+        }
+        closed.countDown();
+        // Неотправленные кадры больше не нужны; освобождаем место для кадра остановки
+        outbound.clear();
+        outbound.offer(CLOSE);
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто
+        }
+    }
+
+    /**
+     * Метод для ожидания закрытия соединения.
+     */
+    void awaitClosed() throws InterruptedException {
+        closed.await();
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.dem.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Каталог присутствия: для каждого пользователя другого узла хранит узел,
+ * к которому он подключен. Локальные пользователи здесь не хранятся.
+ */
+public class PresenceDirectory {
+    // Имя пользователя -> идентификатор узла
+    private final Map<String, String> userNodes = new ConcurrentHashMap<>();
+
+    void put(String username, String nodeId) {
+        userNodes.put(username, nodeId);
+    }
+
+    void remove(String username, String nodeId) {
+        userNodes.remove(username, nodeId);
+    }
+
+    /**
+     * Метод для замены всех пользователей узла (при подключении узла).
+     */
+    void replaceNode(String nodeId, List<String> usernames) {
+        removeNode(nodeId);
+        for (String username : usernames) {
+            userNodes.put(username, nodeId);
+        }
+    }
+
+    /**
+     * Метод для удаления всех пользователей узла (при отказе узла).
+     *
+     * @return true, если у узла были пользователи.
+     */
+    boolean removeNode(String nodeId) {
+        return userNodes.values().removeIf(nodeId::equals);
+    }
+
+    /**
+     * @param username Имя пользователя.
+     * @return Идентификатор узла или null, если пользователь не подключен к другим узлам.
+     */
+    public String nodeOf(String username) {
+        return userNodes.get(username);
+    }
+
+    public int size() {
+        return userNodes.size();
+    }
+
+    public List<String> usernames() {
+        return new ArrayList<>(userNodes.keySet());
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.dem.compression;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Состояние сжатия одного соединения: поток deflate в сторону клиента и поток inflate
+ * от клиента, оба в формате без заголовка zlib и с общим словарем {@link CompressionDictionary}.
+ *
+ * <p>Каждый исходящий кадр сжимается целиком и завершается {@link Deflater#SYNC_FLUSH},
+ * поэтому клиент может разобрать кадр сразу, не дожидаясь следующих данных.
+ * Буферы принадлежат контексту и переиспользуются; контексты выдаются и возвращаются
+ * через {@link CompressionPool}. Методы вызываются только потоком, которому принадлежит соединение.
+ */
+public final class CompressionContext {
+    // Начальный размер буфера сжатых данных
+    private static final int OUTPUT_BUFFER_SIZE = 4 * 1024;
+
+    // Размер, до которого буфер уменьшается при возврате контекста в пул
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    // Размер буфера распакованных данных
+    private static final int INFLATED_BUFFER_SIZE = 8 * 1024;
+
+    private final CompressionPool pool;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    private ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    private final ByteBuffer inflated = ByteBuffer.allocate(INFLATED_BUFFER_SIZE);
+
+    CompressionContext(CompressionPool pool, int level) {
+        this.pool = pool;
+        this.deflater = new Deflater(level, true);
+        applyDictionary();
+    }
+
+    /**
+     * Метод для сжатия одного кадра.
+     *
+     * @param frame Кадр; читается от текущей позиции до конца.
+     * @return Сжатые байты, готовые к записи. Буфер принадлежит контексту и действителен до следующего вызова.
+     */
+    public ByteBuffer compress(ByteBuffer frame) {
+        output.clear();
+        deflater.setInput(frame);
+        while (true) {
+            deflater.deflate(output, Deflater.SYNC_FLUSH);
+            if (output.hasRemaining()) {
+                break;
+            }
+            // Буфер заполнен целиком: блок мог не поместиться, продолжаем в увеличенном буфере
+            ByteBuffer grown = ByteBuffer.allocate(output.capacity() * 2);
+            output.flip();
+            grown.put(output);
+            output = grown;
+        }
+        output.flip();
+        return output;
+    }
+
+    /**
+     * Метод для передачи принятых сжатых байтов. Все байты должны быть распакованы
+     * вызовами {@link #inflate()}, прежде чем буфер будет изменен.
+     */
+    public void setInput(ByteBuffer input) {
+        inflater.setInput(input);
+    }
+
+    /**
+     * Метод для распаковки очередной порции принятых данных.
+     *
+     * @return Распакованные байты или null, если входные данные закончились.
+     *         Буфер принадлежит контексту и действителен до следующего вызова.
+     * @throws DataFormatException Если поток поврежден или завершен клиентом.
+     */
+    public ByteBuffer inflate() throws DataFormatException {
+        inflated.clear();
+        int count = inflater.inflate(inflated);
+        if (count == 0) {
+            if (inflater.finished() || inflater.needsDictionary()) {
+                throw new DataFormatException("Unexpected end of compressed stream");
+            }
+            return null;
+        }
+        inflated.flip();
+        return inflated;
+    }
+
+    /**
+     * Метод для возврата контекста в пул после закрытия соединения.
+     */
+    public void release() {
+        pool.release(this);
+    }
+
+    /**
+     * Метод для подготовки контекста к новому соединению.
+     */
+    void reset() {
+        deflater.reset();
+        inflater.reset();
+        applyDictionary();
+        if (output.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+        }
+    }
+
+    private void applyDictionary() {
+        CompressionDictionary.applyTo(deflater);
+        CompressionDictionary.applyTo(inflater);
+    }
+}
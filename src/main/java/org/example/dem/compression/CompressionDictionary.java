@@ -0,0 +1,67 @@
+package org.example.dem.compression;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Общий словарь сжатия с частыми фрагментами протокола чата.
+ *
+ * <p>Словарь заранее заполняет окно deflate, поэтому уже первые кадры соединения
+ * сжимаются ссылками на типовые ключи JSON, а не передаются целиком. Клиент и сервер
+ * должны использовать один и тот же словарь: при изменении набора фрагментов меняется
+ * и формат потока. Фрагменты, которые встречаются чаще, стоят ближе к концу словаря -
+ * короткие расстояния кодируются меньшим числом бит.
+ */
+public final class CompressionDictionary {
+    private static final String[] TOKENS = {
+            "{\"type\":\"inbox_ack\",\"ack\":",
+            "{\"type\":\"inbox\",\"messages\":[\"",
+            "{\"type\":\"group_create\",\"group\":\"",
+            "\"members\":[\"",
+            "\"recipients\":[\"",
+            "\"group\":\"",
+            "{\"type\":\"attachment_endpoint\",\"port\":",
+            "\"attachment\":{\"preview\":false,\"size\":",
+            "\"preview\":true,\"size\":",
+            ",\"name\":\"",
+            "\",\"id\":\"",
+            "{\"type\":\"user_dict\",\"users\":{\"",
+            " has left the chat.\"}\n",
+            " has joined the chat.\"}\n",
+            "{\"type\":\"user_list\",\"users\":\"",
+            "{\"id\":",
+            ",\"type\":\"user_leave\"}\n",
+            "{\"name\":\"",
+            "\",\"id\":",
+            ",\"type\":\"user_join\"}\n",
+            "{\"count\":",
+            ",\"type\":\"user_count\"}\n",
+            " (private): ",
+            "\"recipient\":\"",
+            "{\"type\":\"message\",\"content\":\"",
+            "\"label\":\"private\",",
+            "{\"from\":",
+            ",\"type\":\"msg\",\"content\":\"",
+            "\"}\n",
+    };
+
+    private static final byte[] DICTIONARY = String.join("", TOKENS).getBytes(StandardCharsets.UTF_8);
+
+    private CompressionDictionary() {
+    }
+
+    /**
+     * Метод для установки словаря перед началом сжатия потока.
+     */
+    public static void applyTo(Deflater deflater) {
+        deflater.setDictionary(DICTIONARY);
+    }
+
+    /**
+     * Метод для установки словаря перед началом распаковки потока (формат без заголовка zlib).
+     */
+    public static void applyTo(Inflater inflater) {
+        inflater.setDictionary(DICTIONARY);
+    }
+}
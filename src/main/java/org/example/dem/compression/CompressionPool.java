@@ -0,0 +1,63 @@
+package org.example.dem.compression;
+
+import org.example.dem.metrics.ServerMetrics;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограниченный пул контекстов сжатия.
+ *
+ * <p>Контекст держит память zlib (окно и хэш-таблицы deflate - около 300 КБ вне кучи),
+ * поэтому количество одновременно сжатых соединений ограничено {@code maxContexts}.
+ * Когда лимит исчерпан, новым клиентам сжатие не предлагается, и они работают без него.
+ * Контексты закрытых соединений сбрасываются и переиспользуются, а не создаются заново,
+ * так что объем памяти под сжатие не превышает {@code maxContexts} контекстов.
+ */
+public final class CompressionPool {
+    private final int maxContexts;
+    private final int level;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    // Выданные контексты
+    private final AtomicInteger active = new AtomicInteger();
+
+    // Свободные контексты (их вместе с выданными не больше maxContexts)
+    private final Queue<CompressionContext> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxContexts Максимальное количество одновременно сжатых соединений.
+     * @param level       Уровень сжатия deflate (1-9).
+     */
+    public CompressionPool(int maxContexts, int level) {
+        this.maxContexts = maxContexts;
+        this.level = level;
+    }
+
+    /**
+     * Метод для получения контекста для нового соединения.
+     *
+     * @return Контекст или null, если лимит сжатых соединений исчерпан.
+     */
+    public CompressionContext acquire() {
+        if (active.incrementAndGet() > maxContexts) {
+            active.decrementAndGet();
+            metrics.compressionDeclined();
+            return null;
+        }
+        CompressionContext context = idle.poll();
+        if (context == null) {
+            context = new CompressionContext(this, level);
+        }
+        metrics.compressionContextAcquired();
+        return context;
+    }
+
+    void release(CompressionContext context) {
+        context.reset();
+        idle.offer(context);
+        active.decrementAndGet();
+        metrics.compressionContextReleased();
+    }
+}
@@ -0,0 +1,266 @@
+package org.example.dem.inbox;
+
+import org.example.dem.exception.ServerException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Почтовые ящики для личных сообщений пользователям, которые сейчас не в сети.
+ *
+ * <p>Для каждого пользователя хранятся два файла: журнал {@code <имя>.log}, в который
+ * сообщения только дописываются (запись: длина int + байты UTF-8), и индекс
+ * {@code <имя>.idx} из двух long: сквозное смещение начала файла журнала и смещение,
+ * до которого журнал уже подтвержден клиентом. Смещения сквозные: при обрезке и сжатии
+ * журнала растет смещение его начала, а не сбрасываются подтверждения, поэтому
+ * повторное или запоздавшее подтверждение (например, от второй сессии) не может
+ * подтвердить сообщения, дописанные позже.
+ * При входе пользователя все неподтвержденные сообщения отправляются одним кадром
+ * {@code inbox} со смещением {@code ack}; клиент подтверждает его кадром {@code inbox_ack}.
+ * Подтверждение перезаписывает только индекс; когда подтвержден весь журнал, он
+ * обрезается до нуля, поэтому файл никогда не переписывается целиком.
+ *
+ * <p>Ящик создается при первом входе пользователя, сообщения для неизвестных имен
+ * не сохраняются. Объем неподтвержденных сообщений ограничен квотой на пользователя.
+ * Все операции с диском выполняются одним фоновым потоком, а не потоками шардов.
+ */
+public class OfflineInbox {
+    private static final Logger logger = LoggerFactory.getLogger(OfflineInbox.class);
+
+    // Порог, после которого частично подтвержденный журнал сжимается
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+    // Поля индекса в массиве, который возвращает readIndex
+    private static final int BASE = 0;
+    private static final int ACKED = 1;
+
+    private final Path directory;
+    private final long maxBytesPerUser;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offline-inbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param directory       Каталог для файлов ящиков.
+     * @param maxBytesPerUser Максимальный объем неподтвержденных сообщений одного пользователя.
+     */
+    public OfflineInbox(Path directory, long maxBytesPerUser) {
+        this.directory = directory;
+        this.maxBytesPerUser = maxBytesPerUser;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException ex) {
+            throw new ServerException("Error creating inbox directory " + directory, ex);
+        }
+    }
+
+    /**
+     * Метод для создания ящика пользователя (если его еще нет) и отправки накопленных сообщений.
+     *
+     * @param username Имя вошедшего пользователя.
+     * @param sender   Отправка готового кадра клиенту (вызывается из фонового потока).
+     */
+    public void userLoggedIn(String username, Consumer<String> sender) {
+        io.execute(() -> {
+            try {
+                Path index = indexFile(username);
+                if (!Files.exists(index)) {
+                    writeIndex(index, 0, 0);
+                    return;
+                }
+                deliver(username, sender);
+            } catch (IOException ex) {
+                logger.error("Error reading inbox of {}", username, ex);
+            }
+        });
+    }
+
+    /**
+     * Метод для сохранения сообщения пользователю, который не в сети.
+     *
+     * @param recipient Имя получателя.
+     * @param content   Текст сообщения (в том виде, в котором его увидит получатель).
+     */
+    public void store(String recipient, String content) {
+        io.execute(() -> {
+            try {
+                Path index = indexFile(recipient);
+                if (!Files.exists(index)) {
+                    logger.debug("No inbox for {}, message dropped", recipient);
+                    return;
+                }
+                byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                Path log = logFile(recipient);
+                long[] position = readIndex(index);
+                long pending = (Files.exists(log) ? Files.size(log) : 0) - (position[ACKED] - position[BASE]);
+                if (pending + Integer.BYTES + bytes.length > maxBytesPerUser) {
+                    logger.warn("Inbox of {} is over quota, message dropped", recipient);
+                    return;
+                }
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+                record.putInt(bytes.length).put(bytes).flip();
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (record.hasRemaining()) {
+                        channel.write(record);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException ex) {
+                logger.error("Error storing message for {}", recipient, ex);
+            }
+        });
+    }
+
+    /**
+     * Метод для подтверждения доставки сообщений до указанного смещения.
+     *
+     * @param username Имя пользователя.
+     * @param offset   Сквозное смещение из кадра {@code inbox}.
+     */
+    public void acknowledge(String username, long offset) {
+        io.execute(() -> {
+            try {
+                Path index = indexFile(username);
+                Path log = logFile(username);
+                if (!Files.exists(index) || !Files.exists(log)) {
+                    return;
+                }
+                long[] position = readIndex(index);
+                long base = position[BASE];
+                long end = base + Files.size(log);
+                // Подтверждение старше текущего ничего не меняет
+                long acked = Math.max(position[ACKED], Math.min(offset, end));
+                if (acked == position[ACKED]) {
+                    return;
+                }
+                if (acked == end) {
+                    // Все сообщения доставлены: журнал просто обрезается. Индекс пишется первым:
+                    // после сбоя между записями сообщения будут доставлены повторно, а не потеряны
+                    writeIndex(index, end, end);
+                    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                        channel.truncate(0);
+                    }
+                } else if (acked - base > COMPACT_THRESHOLD && acked - base > (end - base) / 2) {
+                    compact(log, index, acked - base, acked);
+                } else {
+                    writeIndex(index, base, acked);
+                }
+            } catch (IOException ex) {
+                logger.error("Error acknowledging inbox of {}", username, ex);
+            }
+        });
+    }
+
+    /**
+     * Метод для отправки всех неподтвержденных сообщений одним кадром.
+     */
+    private void deliver(String username, Consumer<String> sender) throws IOException {
+        Path log = logFile(username);
+        if (!Files.exists(log)) {
+            return;
+        }
+        long[] position = readIndex(indexFile(username));
+        long acked = position[ACKED] - position[BASE];
+        JSONArray messages = new JSONArray();
+        long end;
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            end = channel.size();
+            if (end <= acked) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - acked));
+            while (buffer.hasRemaining() && channel.read(buffer, acked + buffer.position()) >= 0) {
+                // Читаем до конца журнала
+            }
+            buffer.flip();
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length > buffer.remaining()) {
+                    // Последняя запись недописана (например, сбой при записи)
+                    end -= Integer.BYTES + buffer.remaining();
+                    break;
+                }
+                messages.put(new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8));
+                buffer.position(buffer.position() + length);
+            }
+        }
+        if (!messages.isEmpty()) {
+            sender.accept(new JSONObject().put("type", "inbox").put("messages", messages).put("ack", position[BASE] + end).toString());
+        }
+    }
+
+    /**
+     * Метод для сжатия журнала: неподтвержденный хвост копируется в новый файл,
+     * который начинается со сквозного смещения {@code base}.
+     *
+     * @param acked Подтвержденная часть текущего файла.
+     * @param base  Сквозное смещение начала нового файла.
+     */
+    private void compact(Path log, Path index, long acked, long base) throws IOException {
+        Path compacted = log.resolveSibling(log.getFileName() + ".tmp");
+        try (FileChannel source = FileChannel.open(log, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = acked;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            target.force(false);
+        }
+        // Индекс пишется первым, как при обрезке: сбой до замены файла приведет к повторной доставке
+        writeIndex(index, base, base);
+        Files.move(compacted, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Сквозное смещение начала журнала ({@link #BASE}) и подтвержденное смещение ({@link #ACKED}).
+     * Индекс старого формата (одно смещение) читается как журнал, начинающийся с нуля.
+     */
+    private long[] readIndex(Path index) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(index));
+        if (bytes.remaining() == 2 * Long.BYTES) {
+            return new long[]{bytes.getLong(), bytes.getLong()};
+        }
+        return new long[]{0, bytes.remaining() == Long.BYTES ? bytes.getLong() : 0};
+    }
+
+    private void writeIndex(Path index, long base, long acked) throws IOException {
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(2 * Long.BYTES).putLong(0, base).putLong(Long.BYTES, acked), 0);
+            channel.force(false);
+        }
+    }
+
+    private Path logFile(String username) {
+        return directory.resolve(fileName(username) + ".log");
+    }
+
+    private Path indexFile(String username) {
+        return directory.resolve(fileName(username) + ".idx");
+    }
+
+    /**
+     * Имена пользователей могут содержать любые символы, поэтому в имени файла используется Base64.
+     */
+    private static String fileName(String username) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Событие JFR: рассылка одного кадра всем клиентам.
+ * Начало и конец события соответствуют началу и завершению рассылки.
+ */
+@Name("org.example.dem.Broadcast")
+@Label("Broadcast")
+@Category({"Chat", "Messages"})
+@Description("Рассылка одного кадра всем подключенным клиентам")
+@StackTrace(false)
+public class BroadcastEvent extends jdk.jfr.Event {
+    @Label("Recipient Count")
+    public int recipientCount;
+
+    @Label("Frame Size")
+    @DataAmount
+    public int frameSize;
+}
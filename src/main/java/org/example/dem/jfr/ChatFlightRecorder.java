@@ -0,0 +1,53 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.example.dem.exception.ServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Запуск записи JFR с профилем сервера чата ({@code /jfr/chat.jfc}).
+ * Тот же профиль можно использовать вручную:
+ * {@code -XX:StartFlightRecording=settings=chat.jfc,filename=chat_server.jfr}.
+ */
+public class ChatFlightRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(ChatFlightRecorder.class);
+
+    // Путь к профилю внутри ресурсов
+    private static final String PROFILE = "/jfr/chat.jfc";
+
+    private ChatFlightRecorder() {
+    }
+
+    /**
+     * Метод для запуска записи, которая будет сохранена в файл при остановке JVM.
+     *
+     * @param file Файл для сохранения записи.
+     */
+    public static void start(Path file) {
+        try (InputStream input = ChatFlightRecorder.class.getResourceAsStream(PROFILE)) {
+            if (input == null) {
+                throw new ServerException("JFR profile not found: " + PROFILE, null);
+            }
+            Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+            Recording recording = new Recording(Configuration.create(reader));
+            recording.setName("chat-server");
+            recording.setToDisk(true);
+            recording.setDestination(file);
+            recording.setDumpOnExit(true);
+            recording.start();
+            logger.info("Flight recording started, will be written to {}", file);
+        } catch (IOException | ParseException ex) {
+            throw new ServerException("Error starting flight recording", ex);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Событие JFR: сервер принял новое TCP-соединение.
+ */
+@Name("org.example.dem.Connect")
+@Label("Client Connect")
+@Category({"Chat", "Connections"})
+@Description("Сервер принял новое подключение клиента")
+@StackTrace(false)
+public class ConnectEvent extends jdk.jfr.Event {
+    @Label("Remote Address")
+    public String remoteAddress;
+}
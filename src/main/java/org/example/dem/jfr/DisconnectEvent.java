@@ -0,0 +1,24 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Событие JFR: отключение клиента.
+ * Длительность события равна продолжительности всего соединения.
+ */
+@Name("org.example.dem.Disconnect")
+@Label("Client Disconnect")
+@Category({"Chat", "Connections"})
+@Description("Отключение клиента, длительность равна времени жизни соединения")
+@StackTrace(false)
+public class DisconnectEvent extends jdk.jfr.Event {
+    @Label("Username")
+    public String username;
+
+    @Label("Messages Received")
+    public long messagesReceived;
+}
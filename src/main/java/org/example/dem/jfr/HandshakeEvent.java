@@ -0,0 +1,24 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Событие JFR: этап входа клиента (от подключения до получения имени пользователя).
+ * Длительность события равна времени ожидания первой строки от клиента.
+ */
+@Name("org.example.dem.Handshake")
+@Label("Client Handshake")
+@Category({"Chat", "Connections"})
+@Description("Время от подключения до получения строки входа")
+@StackTrace(false)
+public class HandshakeEvent extends jdk.jfr.Event {
+    @Label("Username")
+    public String username;
+
+    @Label("Success")
+    public boolean success;
+}
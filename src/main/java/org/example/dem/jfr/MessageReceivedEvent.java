@@ -0,0 +1,29 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Событие JFR: сервер получил и обработал одно сообщение клиента.
+ * Длительность события равна времени разбора и маршрутизации сообщения.
+ */
+@Name("org.example.dem.MessageReceived")
+@Label("Message Received")
+@Category({"Chat", "Messages"})
+@Description("Разбор и маршрутизация одного входящего сообщения")
+@StackTrace(false)
+public class MessageReceivedEvent extends jdk.jfr.Event {
+    @Label("Sender")
+    public String sender;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Size")
+    @DataAmount
+    public int size;
+}
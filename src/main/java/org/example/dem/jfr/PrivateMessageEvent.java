@@ -0,0 +1,29 @@
+package org.example.dem.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Событие JFR: маршрутизация личного сообщения.
+ */
+@Name("org.example.dem.PrivateMessage")
+@Label("Private Message")
+@Category({"Chat", "Messages"})
+@Description("Поиск получателей и доставка личного сообщения")
+@StackTrace(false)
+public class PrivateMessageEvent extends jdk.jfr.Event {
+    @Label("Sender")
+    public String sender;
+
+    @Label("Recipient")
+    public String recipient;
+
+    @Label("Recipient Count")
+    public int recipientCount;
+
+    @Label("Delivered")
+    public boolean delivered;
+}
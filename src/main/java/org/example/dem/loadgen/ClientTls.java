@@ -0,0 +1,162 @@
+package org.example.dem.loadgen;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Клиентская сторона TLS одного соединения генератора нагрузки.
+ *
+ * <p>Зашифрованные байты добавляются в очередь записи соединения, которую отправляет
+ * {@link LoadWorker}. Задачи рукопожатия выполняются сразу в потоке генератора и на это
+ * время задерживают его сообщения, поэтому прогрев ({@code --warmup}) должен покрывать
+ * подключение всех клиентов. Данные, записанные до завершения рукопожатия, ждут его в очереди.
+ */
+class ClientTls {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final ArrayDeque<ByteBuffer> outbound;
+    private final ArrayDeque<ByteBuffer> plainPending = new ArrayDeque<>();
+
+    // Принятые, но еще не расшифрованные байты и расшифрованные данные последнего чтения
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    // Буфер для одной зашифрованной записи; в очередь записи попадает ее копия точного размера
+    private final ByteBuffer netOut;
+
+    private boolean established;
+
+    /**
+     * @param engine   Движок TLS в режиме клиента.
+     * @param outbound Очередь записи соединения, в которую добавляются зашифрованные байты.
+     */
+    ClientTls(SSLEngine engine, ArrayDeque<ByteBuffer> outbound) throws SSLException {
+        this.engine = engine;
+        this.outbound = outbound;
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        engine.beginHandshake();
+        handshake();
+    }
+
+    /**
+     * @return true, если рукопожатие завершено.
+     */
+    boolean isEstablished() {
+        return established;
+    }
+
+    /**
+     * Метод для шифрования данных приложения (после рукопожатия).
+     */
+    void wrap(ByteBuffer plain) throws SSLException {
+        plainPending.add(plain);
+        wrapPending();
+    }
+
+    /**
+     * Метод для расшифровки принятых байтов. Неполная запись TLS сохраняется до следующего чтения.
+     *
+     * @param received Байты, прочитанные из сокета.
+     * @return Расшифрованные данные; буфер действителен до следующего вызова.
+     */
+    ByteBuffer unwrap(ByteBuffer received) throws SSLException {
+        if (netIn.remaining() < received.remaining()) {
+            netIn = grow(netIn, netIn.position() + received.remaining());
+        }
+        netIn.put(received);
+        netIn.flip();
+        appIn.clear();
+        while (netIn.hasRemaining()) {
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+                established = true;
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Server closed the TLS session");
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                appIn = grow(appIn, appIn.position() + engine.getSession().getApplicationBufferSize());
+                continue;
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                // Запись пришла не целиком
+                break;
+            }
+            handshake();
+        }
+        netIn.compact();
+        wrapPending();
+        appIn.flip();
+        return appIn;
+    }
+
+    /**
+     * Метод для выполнения шагов рукопожатия, которые не ждут данных от сервера.
+     */
+    private void handshake() throws SSLException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    seal(EMPTY);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void wrapPending() throws SSLException {
+        if (!established) {
+            return;
+        }
+        while (!plainPending.isEmpty()) {
+            ByteBuffer plain = plainPending.peek();
+            if (seal(plain).bytesConsumed() == 0) {
+                // Движок ждет сообщения рукопожатия от сервера
+                return;
+            }
+            if (!plain.hasRemaining()) {
+                plainPending.poll();
+            }
+        }
+    }
+
+    /**
+     * Метод для шифрования одной записи и добавления ее в очередь записи.
+     */
+    private SSLEngineResult seal(ByteBuffer plain) throws SSLException {
+        netOut.clear();
+        SSLEngineResult result = engine.wrap(plain, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS session closed");
+        }
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+            established = true;
+        }
+        netOut.flip();
+        if (netOut.hasRemaining()) {
+            ByteBuffer record = ByteBuffer.allocate(netOut.remaining());
+            record.put(netOut).flip();
+            outbound.add(record);
+        }
+        return result;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
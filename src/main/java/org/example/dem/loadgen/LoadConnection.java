@@ -0,0 +1,70 @@
+package org.example.dem.loadgen;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Состояние одного виртуального клиента генератора нагрузки.
+ */
+class LoadConnection {
+    // Размер буфера чтения одного соединения
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    final String username;
+    final SocketChannel channel;
+    SelectionKey key;
+
+    // Признак того, что соединение установлено, вход отправлен и клиент может отправлять сообщения
+    boolean ready;
+
+    // TLS поверх канала (null - без шифрования)
+    ClientTls tls;
+
+    // Клиент запросил сжатие и ждет ответа сервера; после ответа deflate - контексты сжатия потока
+    boolean awaitingCompression;
+    Deflater deflater;
+    Inflater inflater;
+
+    // Буфер чтения и недочитанная часть последней строки
+    final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    byte[] partialLine = new byte[256];
+    int partialLength;
+
+    // Очередь кадров, которые не удалось записать сразу
+    final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+
+    LoadConnection(String username, SocketChannel channel) {
+        this.username = username;
+        this.channel = channel;
+    }
+
+    /**
+     * Метод для добавления байта к текущей строке.
+     */
+    void appendToLine(byte value) {
+        if (partialLength == partialLine.length) {
+            byte[] grown = new byte[partialLine.length * 2];
+            System.arraycopy(partialLine, 0, grown, 0, partialLength);
+            partialLine = grown;
+        }
+        partialLine[partialLength++] = value;
+    }
+
+    /**
+     * Метод для освобождения памяти контекстов сжатия вне кучи.
+     */
+    void releaseCompression() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
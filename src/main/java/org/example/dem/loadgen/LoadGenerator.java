@@ -0,0 +1,151 @@
+package org.example.dem.loadgen;
+
+import org.example.dem.metrics.LatencyHistogram;
+import org.example.dem.tls.TlsContexts;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.net.ssl.SSLContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Консольный генератор нагрузки для сервера чата (без JavaFX).
+ * Открывает тысячи соединений по протоколу ChatServer, отправляет общие и личные
+ * сообщения с заданной частотой и измеряет задержку доставки от отправки до получения.
+ * Результат печатается и сохраняется в JSON-файл.
+ *
+ * <p>Пример запуска:
+ * {@code java -cp ... org.example.dem.loadgen.LoadGenerator --connections=2000 --messageRate=1000 --privateRatio=0.3}
+ *
+ * <p>{@code --features=user_ids,deflate} включает компактные кадры и сжатие потока,
+ * {@code --tls=true} - подключение по TLS с хранилищем {@code --trustStore} (по умолчанию
+ * сертификат, который экспортирует сервер с самоподписанным ключом).
+ *
+ * <p>Сервер ограничивает частоту сообщений каждого соединения (этап {@code rate}, по умолчанию
+ * 20 в секунду с запасом 40). Средняя частота одного клиента генератора - {@code messageRate}
+ * на количество подключенных клиентов; если она выше, большая часть сообщений отклоняется,
+ * и задержка измеряется только для оставшихся. Отклоненные сообщения считаются в отчете
+ * ({@code rateLimited}); для замеров пропускной способности сервер запускается без этого этапа:
+ * {@code -Dpipeline.stages=validate,filter,route}.
+ */
+public class LoadGenerator {
+    // Ограничение частоты сообщений одного соединения в конфигурации сервера по умолчанию
+    private static final double SERVER_RATE_LIMIT = 20;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        LoadOptions options = LoadOptions.parse(args);
+        LoadWorker.LoadStats stats = new LoadWorker.LoadStats();
+
+        double perConnectionRate = options.messageRate / options.connections;
+        if (perConnectionRate > SERVER_RATE_LIMIT) {
+            System.out.printf("Warning: %.1f messages/s per connection exceeds the default server rate limit (%.0f/s); "
+                    + "run the server with -Dpipeline.stages=validate,filter,route%n", perConnectionRate, SERVER_RATE_LIMIT);
+        }
+        SSLContext tlsContext = null;
+        if (options.tls) {
+            Path trustStore = options.trustStore.isEmpty() ? null : Path.of(options.trustStore);
+            tlsContext = TlsContexts.clientContext(trustStore, options.trustStorePassword.toCharArray());
+        }
+
+        // Имена пользователей распределяются по потокам через один
+        List<String> usernames = new ArrayList<>(options.connections);
+        for (int i = 0; i < options.connections; i++) {
+            usernames.add("lg-" + i);
+        }
+
+        List<LoadWorker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < options.workers; i++) {
+            int share = options.connections / options.workers + (i < options.connections % options.workers ? 1 : 0);
+            LoadWorker worker = new LoadWorker(i, share, options, stats, usernames, tlsContext);
+            Thread thread = new Thread(worker, "loadgen-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+
+        System.out.printf("Warming up for %d s...%n", options.warmupSeconds);
+        TimeUnit.SECONDS.sleep(options.warmupSeconds);
+        stats.resetAfterWarmup();
+
+        long start = System.nanoTime();
+        for (int second = 1; second <= options.durationSeconds; second++) {
+            TimeUnit.SECONDS.sleep(1);
+            System.out.printf("[%3d s] connected=%d sent=%d delivered=%d rateLimited=%d p99=%d us%n", second,
+                    stats.connected.get(), stats.broadcastSent.get() + stats.privateSent.get(),
+                    stats.delivered.get(), stats.rateLimited.get(), TimeUnit.NANOSECONDS.toMicros(stats.allLatency.getValueAtPercentile(99)));
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        for (LoadWorker worker : workers) {
+            worker.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        String report = buildReport(options, stats, elapsedSeconds).toString(2);
+        System.out.println(report);
+        Files.writeString(Path.of(options.reportFile), report, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Метод для формирования машиночитаемого отчета.
+     */
+    private static JSONObject buildReport(LoadOptions options, LoadWorker.LoadStats stats, double elapsedSeconds) {
+        JSONObject config = new JSONObject()
+                .put("host", options.host)
+                .put("port", options.port)
+                .put("connections", options.connections)
+                .put("joinRate", options.joinRate)
+                .put("messageRate", options.messageRate)
+                .put("privateRatio", options.privateRatio)
+                .put("payloadSize", options.payloadSize)
+                .put("warmupSeconds", options.warmupSeconds)
+                .put("durationSeconds", options.durationSeconds)
+                .put("workers", options.workers)
+                .put("features", new JSONArray(options.features))
+                .put("tls", options.tls);
+
+        long sent = stats.broadcastSent.get() + stats.privateSent.get();
+        JSONObject throughput = new JSONObject()
+                .put("messagesSentPerSecond", sent / elapsedSeconds)
+                .put("deliveriesPerSecond", stats.delivered.get() / elapsedSeconds)
+                .put("framesReceivedPerSecond", stats.framesReceived.get() / elapsedSeconds)
+                .put("bytesSentPerSecond", stats.bytesSent.get() / elapsedSeconds)
+                .put("bytesReceivedPerSecond", stats.bytesReceived.get() / elapsedSeconds);
+
+        return new JSONObject()
+                .put("config", config)
+                .put("elapsedSeconds", elapsedSeconds)
+                .put("connectedAtEnd", stats.connected.get())
+                .put("connectionErrors", stats.connectionErrors.get())
+                .put("broadcastSent", stats.broadcastSent.get())
+                .put("privateSent", stats.privateSent.get())
+                .put("framesReceived", stats.framesReceived.get())
+                .put("delivered", stats.delivered.get())
+                .put("rateLimited", stats.rateLimited.get())
+                .put("throughput", throughput)
+                .put("latencyMicros", latencyReport(stats.allLatency))
+                .put("broadcastLatencyMicros", latencyReport(stats.broadcastLatency))
+                .put("privateLatencyMicros", latencyReport(stats.privateLatency));
+    }
+
+    private static JSONObject latencyReport(LatencyHistogram histogram) {
+        return new JSONObject()
+                .put("count", histogram.getCount())
+                .put("mean", TimeUnit.NANOSECONDS.toMicros((long) histogram.getMean()))
+                .put("p50", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)))
+                .put("p90", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(90)))
+                .put("p99", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)))
+                .put("p999", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.9)))
+                .put("max", TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.dem.loadgen;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Параметры генератора нагрузки, задаются аргументами вида --ключ=значение.
+ */
+class LoadOptions {
+    String host = "localhost";
+    int port = 12345;
+    int connections = 1000;
+    double joinRate = 200;
+    double messageRate = 500;
+    double privateRatio = 0.2;
+    int payloadSize = 64;
+    int warmupSeconds = 5;
+    int durationSeconds = 30;
+    int workers = Runtime.getRuntime().availableProcessors();
+    String reportFile = "loadgen-report.json";
+
+    // Возможности протокола, которые клиенты запрашивают при входе (user_ids, deflate); пусто - старый протокол
+    List<String> features = List.of();
+
+    // Подключение по TLS и хранилище доверенных сертификатов (пустое значение - сертификаты JDK)
+    boolean tls;
+    String trustStore = "tls/server-cert.p12";
+    String trustStorePassword = "changeit";
+
+    /**
+     * Метод для разбора аргументов командной строки.
+     *
+     * @param args Аргументы вида --connections=5000.
+     * @return Параметры генератора.
+     */
+    static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        LoadOptions options = new LoadOptions();
+        options.host = values.getOrDefault("host", options.host);
+        options.port = Integer.parseInt(values.getOrDefault("port", String.valueOf(options.port)));
+        options.connections = Integer.parseInt(values.getOrDefault("connections", String.valueOf(options.connections)));
+        options.joinRate = Double.parseDouble(values.getOrDefault("joinRate", String.valueOf(options.joinRate)));
+        options.messageRate = Double.parseDouble(values.getOrDefault("messageRate", String.valueOf(options.messageRate)));
+        options.privateRatio = Double.parseDouble(values.getOrDefault("privateRatio", String.valueOf(options.privateRatio)));
+        options.payloadSize = Integer.parseInt(values.getOrDefault("payload", String.valueOf(options.payloadSize)));
+        options.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", String.valueOf(options.warmupSeconds)));
+        options.durationSeconds = Integer.parseInt(values.getOrDefault("duration", String.valueOf(options.durationSeconds)));
+        options.workers = Integer.parseInt(values.getOrDefault("workers", String.valueOf(options.workers)));
+        options.reportFile = values.getOrDefault("report", options.reportFile);
+        if (values.containsKey("features")) {
+            options.features = Arrays.stream(values.get("features").split(","))
+                    .map(String::trim).filter(feature -> !feature.isEmpty()).toList();
+        }
+        options.tls = Boolean.parseBoolean(values.getOrDefault("tls", String.valueOf(options.tls)));
+        options.trustStore = values.getOrDefault("trustStore", options.trustStore);
+        options.trustStorePassword = values.getOrDefault("trustStorePassword", options.trustStorePassword);
+        options.workers = Math.max(1, Math.min(options.workers, options.connections));
+        return options;
+    }
+}
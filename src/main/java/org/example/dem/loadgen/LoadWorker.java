@@ -0,0 +1,459 @@
+package org.example.dem.loadgen;
+
+import org.example.dem.compression.CompressionDictionary;
+import org.example.dem.metrics.LatencyHistogram;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Цикл событий генератора нагрузки: владеет частью виртуальных клиентов,
+ * открывает соединения и отправляет сообщения с заданной частотой,
+ * а также разбирает входящие кадры и измеряет задержку доставки.
+ * Каждый поток работает со своим Selector, поэтому тысячи соединений
+ * обслуживаются несколькими потоками.
+ */
+class LoadWorker implements Runnable {
+    // Маркер, по которому входящие сообщения генератора отличаются от остальных
+    static final byte[] MARKER = "lg|".getBytes(StandardCharsets.US_ASCII);
+
+    // Сервер добавляет эту пометку к личным сообщениям старого протокола
+    private static final byte[] PRIVATE_MARKER = "(private)".getBytes(StandardCharsets.US_ASCII);
+
+    // Метка личного сообщения в кадре msg (возможность user_ids)
+    private static final byte[] PRIVATE_LABEL = "\"label\":\"private\"".getBytes(StandardCharsets.US_ASCII);
+
+    // Ответ сервера на сжатие и уведомление ограничения частоты
+    private static final byte[] COMPRESSION_REPLY = "\"compression\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DEFLATE = "\"deflate\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RATE_LIMITED = "Rate limit exceeded".getBytes(StandardCharsets.US_ASCII);
+
+    private final int workerId;
+    private final LoadOptions options;
+    private final LoadStats stats;
+    private final List<String> allUsernames;
+    private final int connectionCount;
+    private final SplittableRandom random;
+    private final SSLContext tlsContext;
+    // Возможности протокола для строки входа (null - старый протокол)
+    private final JSONArray features;
+
+    private final List<LoadConnection> connections = new ArrayList<>();
+    private final List<LoadConnection> readyConnections = new ArrayList<>();
+    private final String padding;
+
+    // Буферы сжатия и распаковки, общие для соединений потока
+    private byte[] deflated = new byte[1024];
+    private final byte[] inflated = new byte[16 * 1024];
+
+    private volatile boolean running = true;
+
+    /**
+     * @param tlsContext Клиентский контекст TLS (null - соединения без шифрования).
+     */
+    LoadWorker(int workerId, int connectionCount, LoadOptions options, LoadStats stats, List<String> allUsernames,
+               SSLContext tlsContext) {
+        this.workerId = workerId;
+        this.connectionCount = connectionCount;
+        this.options = options;
+        this.stats = stats;
+        this.allUsernames = allUsernames;
+        this.random = new SplittableRandom(31L * workerId + 17);
+        char[] fill = new char[options.payloadSize];
+        Arrays.fill(fill, 'x');
+        this.padding = new String(fill);
+        this.tlsContext = tlsContext;
+        this.features = options.features.isEmpty() ? null : new JSONArray(options.features);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open()) {
+            int workers = options.workers;
+            long joinInterval = options.joinRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * workers / options.joinRate) : 0;
+            long messageInterval = options.messageRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * workers / options.messageRate) : 0;
+            long start = System.nanoTime();
+            long nextJoinAt = start;
+            long nextMessageAt = start + TimeUnit.SECONDS.toNanos(1);
+            int opened = 0;
+
+            while (running) {
+                long now = System.nanoTime();
+
+                // Открываем новые соединения с заданной частотой
+                while (opened < connectionCount && now >= nextJoinAt) {
+                    open(selector, opened++);
+                    nextJoinAt += joinInterval;
+                }
+
+                // Отправляем сообщения по расписанию; в сообщение записывается плановое время,
+                // поэтому отставание генератора тоже попадает в задержку
+                while (messageInterval > 0 && now >= nextMessageAt) {
+                    if (!readyConnections.isEmpty()) {
+                        sendMessage(nextMessageAt);
+                    }
+                    nextMessageAt += messageInterval;
+                }
+
+                long nextEvent = Math.min(opened < connectionCount ? nextJoinAt : Long.MAX_VALUE,
+                        messageInterval > 0 ? nextMessageAt : Long.MAX_VALUE);
+                long timeoutMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextEvent - System.nanoTime()));
+                selector.select(Math.min(timeoutMillis, 100));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    LoadConnection connection = (LoadConnection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            finishConnect(connection);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    } catch (IOException ex) {
+                        close(connection);
+                        stats.connectionErrors.incrementAndGet();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            stats.connectionErrors.incrementAndGet();
+        } finally {
+            for (LoadConnection connection : connections) {
+                try {
+                    connection.channel.close();
+                } catch (IOException ignored) {
+                    // Соединение уже закрыто
+                }
+                connection.releaseCompression();
+            }
+        }
+    }
+
+    /**
+     * Метод для открытия нового соединения.
+     */
+    private void open(Selector selector, int index) {
+        String username = allUsernames.get(index * options.workers + workerId);
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            LoadConnection connection = new LoadConnection(username, channel);
+            connections.add(connection);
+            boolean connected = channel.connect(new InetSocketAddress(options.host, options.port));
+            connection.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            if (connected) {
+                onConnected(connection);
+            }
+        } catch (IOException ex) {
+            stats.connectionErrors.incrementAndGet();
+        }
+    }
+
+    private void finishConnect(LoadConnection connection) throws IOException {
+        if (connection.channel.finishConnect()) {
+            connection.key.interestOps(SelectionKey.OP_READ);
+            onConnected(connection);
+        }
+    }
+
+    /**
+     * Метод для отправки строки входа. Клиент без TLS и сжатия сразу начинает отправлять
+     * сообщения; с TLS - после рукопожатия, со сжатием - после ответа сервера о сжатии.
+     */
+    private void onConnected(LoadConnection connection) throws IOException {
+        if (tlsContext != null) {
+            SSLEngine engine = tlsContext.createSSLEngine(options.host, options.port);
+            engine.setUseClientMode(true);
+            connection.tls = new ClientTls(engine, connection.pendingWrites);
+        }
+        connection.awaitingCompression = options.features.contains("deflate");
+        String login = new JSONObject().put("type", "login").put("username", connection.username)
+                .put("features", features).toString();
+        write(connection, login);
+        if (connection.tls == null && !connection.awaitingCompression) {
+            markReady(connection);
+        }
+    }
+
+    private void markReady(LoadConnection connection) {
+        connection.ready = true;
+        readyConnections.add(connection);
+        stats.connected.incrementAndGet();
+    }
+
+    /**
+     * Метод для отправки одного сообщения от случайного клиента.
+     *
+     * @param scheduledAt Плановое время отправки (System.nanoTime()).
+     */
+    private void sendMessage(long scheduledAt) {
+        LoadConnection sender = readyConnections.get(random.nextInt(readyConnections.size()));
+        JSONObject message = new JSONObject()
+                .put("type", "message")
+                .put("content", "lg|" + scheduledAt + "|" + padding);
+        boolean isPrivate = random.nextDouble() < options.privateRatio && stats.connected.get() > 1;
+        if (isPrivate) {
+            String recipient;
+            do {
+                recipient = allUsernames.get(random.nextInt(Math.min(allUsernames.size(), (int) stats.connected.get())));
+            } while (recipient.equals(sender.username));
+            message.put("recipient", recipient);
+        }
+        try {
+            write(sender, message.toString());
+            (isPrivate ? stats.privateSent : stats.broadcastSent).incrementAndGet();
+        } catch (IOException ex) {
+            close(sender);
+            stats.connectionErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Метод для отправки кадра: сжатие и шифрование, если они включены, затем запись в сокет.
+     * В счетчик отправленных байтов попадают байты, записанные в сокет.
+     */
+    private void write(LoadConnection connection, String frame) throws IOException {
+        byte[] bytes = (frame + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = connection.deflater != null ? deflate(connection.deflater, bytes) : ByteBuffer.wrap(bytes);
+        if (connection.tls != null) {
+            connection.tls.wrap(buffer);
+        } else {
+            connection.pendingWrites.add(buffer);
+        }
+        flush(connection);
+    }
+
+    private void flush(LoadConnection connection) throws IOException {
+        while (!connection.pendingWrites.isEmpty()) {
+            ByteBuffer buffer = connection.pendingWrites.peek();
+            stats.bytesSent.addAndGet(connection.channel.write(buffer));
+            if (buffer.hasRemaining()) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.pendingWrites.poll();
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Метод для сжатия кадра с SYNC_FLUSH: сервер может распаковать его, не дожидаясь следующих.
+     */
+    private ByteBuffer deflate(Deflater deflater, byte[] bytes) {
+        deflater.setInput(bytes);
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(deflated, length, deflated.length - length, Deflater.SYNC_FLUSH);
+            if (length < deflated.length) {
+                break;
+            }
+            deflated = Arrays.copyOf(deflated, deflated.length * 2);
+        }
+        return ByteBuffer.wrap(Arrays.copyOf(deflated, length));
+    }
+
+    /**
+     * Метод для чтения данных и разбора строк без создания строковых объектов.
+     */
+    private void read(LoadConnection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        int read = connection.channel.read(buffer);
+        if (read < 0) {
+            throw new IOException("Server closed connection");
+        }
+        stats.bytesReceived.addAndGet(read);
+        buffer.flip();
+        if (connection.tls != null) {
+            receive(connection, connection.tls.unwrap(buffer));
+            if (connection.tls.isEstablished() && !connection.ready && !connection.awaitingCompression) {
+                markReady(connection);
+            }
+            // Ответы рукопожатия и данные, которые ждали его завершения
+            flush(connection);
+        } else {
+            receive(connection, buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Метод для обработки принятых (расшифрованных) байтов: после ответа сервера
+     * о сжатии остаток потока распаковывается.
+     */
+    private void receive(LoadConnection connection, ByteBuffer data) throws IOException {
+        if (connection.inflater == null) {
+            splitLines(connection, data);
+            if (connection.inflater == null) {
+                return;
+            }
+        }
+        Inflater inflater = connection.inflater;
+        inflater.setInput(data);
+        try {
+            int count;
+            while ((count = inflater.inflate(inflated)) > 0) {
+                splitLines(connection, ByteBuffer.wrap(inflated, 0, count));
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid compressed stream", ex);
+        }
+        if (!inflater.needsInput()) {
+            throw new IOException("Compressed stream ended unexpectedly");
+        }
+    }
+
+    /**
+     * Метод для разбора строк. Останавливается после ответа о включении сжатия,
+     * потому что следующие байты уже сжаты.
+     */
+    private void splitLines(LoadConnection connection, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            byte value = data.get();
+            if (value != '\n') {
+                connection.appendToLine(value);
+                continue;
+            }
+            int length = connection.partialLength;
+            connection.partialLength = 0;
+            if (connection.awaitingCompression && indexOf(connection.partialLine, length, COMPRESSION_REPLY) >= 0) {
+                onCompressionReply(connection, indexOf(connection.partialLine, length, DEFLATE) >= 0);
+                if (connection.inflater != null) {
+                    return;
+                }
+                continue;
+            }
+            onLine(connection.partialLine, length);
+        }
+    }
+
+    /**
+     * Метод для включения сжатия по ответу сервера (при ответе none клиент продолжает без сжатия).
+     */
+    private void onCompressionReply(LoadConnection connection, boolean deflate) throws IOException {
+        connection.awaitingCompression = false;
+        if (deflate) {
+            connection.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            CompressionDictionary.applyTo(connection.deflater);
+            connection.inflater = new Inflater(true);
+            CompressionDictionary.applyTo(connection.inflater);
+        }
+        markReady(connection);
+    }
+
+    /**
+     * Метод для обработки одной входящей строки: если в ней есть маркер
+     * генератора, из нее извлекается время отправки и записывается задержка.
+     */
+    private void onLine(byte[] line, int length) {
+        stats.framesReceived.incrementAndGet();
+        int markerAt = indexOf(line, length, MARKER);
+        if (markerAt < 0) {
+            if (indexOf(line, length, RATE_LIMITED) >= 0) {
+                stats.rateLimited.incrementAndGet();
+            }
+            return;
+        }
+        long sentAt = 0;
+        for (int i = markerAt + MARKER.length; i < length && line[i] >= '0' && line[i] <= '9'; i++) {
+            sentAt = sentAt * 10 + (line[i] - '0');
+        }
+        long latency = System.nanoTime() - sentAt;
+        // Порядок полей JSON не задан, поэтому метка ищется во всей строке
+        boolean isPrivate = indexOf(line, length, PRIVATE_MARKER) >= 0 || indexOf(line, length, PRIVATE_LABEL) >= 0;
+        LatencyHistogram histogram = isPrivate ? stats.privateLatency : stats.broadcastLatency;
+        histogram.record(latency);
+        stats.allLatency.record(latency);
+        stats.delivered.incrementAndGet();
+    }
+
+    private static int indexOf(byte[] data, int length, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void close(LoadConnection connection) {
+        if (connection.ready) {
+            connection.ready = false;
+            readyConnections.remove(connection);
+            stats.connected.decrementAndGet();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто
+        }
+        connection.releaseCompression();
+    }
+
+    /**
+     * Общая статистика всех потоков генератора.
+     */
+    static class LoadStats {
+        final AtomicLong connected = new AtomicLong();
+        final AtomicLong connectionErrors = new AtomicLong();
+        final AtomicLong broadcastSent = new AtomicLong();
+        final AtomicLong privateSent = new AtomicLong();
+        final AtomicLong framesReceived = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong rateLimited = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final LatencyHistogram allLatency = new LatencyHistogram();
+        final LatencyHistogram broadcastLatency = new LatencyHistogram();
+        final LatencyHistogram privateLatency = new LatencyHistogram();
+
+        /**
+         * Метод для сброса счетчиков после прогрева (количество соединений сохраняется).
+         */
+        void resetAfterWarmup() {
+            broadcastSent.set(0);
+            privateSent.set(0);
+            framesReceived.set(0);
+            delivered.set(0);
+            rateLimited.set(0);
+            bytesSent.set(0);
+            bytesReceived.set(0);
+            allLatency.reset();
+            broadcastLatency.reset();
+            privateLatency.reset();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.example.dem.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import org.example.dem.metrics.ServerMetrics;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронный appender logback: потоки сервера кладут событие в кольцевой буфер без
+ * блокировок и ожидания, а запись в подключенные appender'ы ({@code appender-ref})
+ * выполняет один фоновый поток.
+ *
+ * <p>Когда свободного места в буфере остается меньше {@code discardingThreshold},
+ * события уровня INFO и ниже отбрасываются, чтобы место осталось для WARN и ERROR;
+ * при полном буфере отбрасываются любые события. Потоки циклов событий никогда не ждут
+ * диска. Вместо потерянных событий фоновый поток не чаще раза в секунду записывает одно
+ * событие WARN с их количеством, а счетчик попадает в метрику {@code chat_log_events_dropped_total}.
+ *
+ * <p>Текст сообщения форматируется в фоновом потоке, поэтому аргументы вызова
+ * не должны изменяться после него (в сервере передаются строки и числа).
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+    // Время ожидания фонового потока, если буфер пуст и его не разбудили
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // Минимальный интервал между сообщениями об отброшенных событиях
+    private static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Время, которое дается фоновому потоку на запись оставшихся событий при остановке
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+
+    private int capacity = 8192;
+    private int discardingThreshold = -1;
+
+    private AtomicReferenceArray<ILoggingEvent> slots;
+    private int mask;
+    // Заполнение буфера, при котором производитель будит фоновый поток раньше срока
+    private int wakeupThreshold;
+    // Номер следующей свободной ячейки (производители) и следующей читаемой ячейки (фоновый поток)
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final LongAdder dropped = new LongAdder();
+    // Время последнего сообщения об отброшенных событиях (используется только фоновым потоком)
+    private long lastSummaryNanos;
+    private Thread worker;
+    private volatile boolean workerParked;
+
+    /**
+     * @param capacity Размер буфера; округляется вверх до степени двойки.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param discardingThreshold Свободное место, при котором начинают отбрасываться события
+     *                            INFO и ниже (по умолчанию пятая часть буфера, 0 - не отбрасывать).
+     */
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    public int getDiscardingThreshold() {
+        return discardingThreshold;
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (capacity < 1) {
+            addError("Invalid capacity " + capacity + " for appender [" + name + "]");
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()) {
+            addWarn("No appenders attached to [" + name + "]");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        wakeupThreshold = Math.max(1, size / 4);
+        if (discardingThreshold < 0) {
+            discardingThreshold = size / 5;
+        }
+        worker = new Thread(this::drain, "log-writer-" + name);
+        worker.setDaemon(true);
+        super.start();
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        LockSupport.unpark(worker);
+        join();
+        if (worker.isAlive()) {
+            // Не успел записать оставшиеся события: прерываем, чтобы он вышел после текущего события
+            addWarn("Appender [" + name + "] stopped with " + (tail.get() - head) + " queued events");
+            worker.interrupt();
+            join();
+        }
+        if (worker.isAlive()) {
+            // Фоновый поток все еще пишет в подключенные appender'ы, останавливать их нельзя
+            addWarn("Writer thread of appender [" + name + "] did not exit; attached appenders are left running");
+            return;
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    private void join() {
+        try {
+            worker.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        long free = slots.length() - (tail.get() - head);
+        if (free <= discardingThreshold && event.getLevel().toInt() <= Level.INFO_INT) {
+            dropped.increment();
+            return;
+        }
+        // Имя потока и MDC фиксируются сразу: в фоновом потоке они были бы другими
+        event.getThreadName();
+        event.getMDCPropertyMap();
+        if (!offer(event)) {
+            dropped.increment();
+            return;
+        }
+        // Редкие события фоновый поток заберет по таймеру; будить его на каждое событие дорого
+        if (workerParked && (tail.get() - head >= wakeupThreshold || event.getLevel().toInt() >= Level.WARN_INT)) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Метод для занятия ячейки буфера без блокировок.
+     *
+     * @return false, если буфер заполнен.
+     */
+    private boolean offer(ILoggingEvent event) {
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        slots.set((int) claimed & mask, event);
+        return true;
+    }
+
+    /**
+     * Метод фонового потока: передает события подключенным appender'ам по порядку.
+     */
+    private void drain() {
+        long next = head;
+        // Прерывание означает, что stop() больше не ждет оставшиеся события
+        while (!Thread.currentThread().isInterrupted()) {
+            int index = (int) next & mask;
+            ILoggingEvent event = slots.get(index);
+            if (event != null) {
+                slots.set(index, null);
+                head = ++next;
+                appenders.appendLoopOnAppenders(event);
+                continue;
+            }
+            reportDropped();
+            if (next != tail.get()) {
+                // Ячейка занята, но событие еще не записано производителем
+                Thread.onSpinWait();
+                continue;
+            }
+            if (!isStarted()) {
+                return;
+            }
+            workerParked = true;
+            if (next == tail.get() && isStarted()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            workerParked = false;
+        }
+    }
+
+    /**
+     * Метод для записи одного события вместо всех отброшенных с прошлого отчета.
+     */
+    private void reportDropped() {
+        long now = System.nanoTime();
+        if (isStarted() && now - lastSummaryNanos < SUMMARY_INTERVAL_NANOS) {
+            return;
+        }
+        long count = dropped.sumThenReset();
+        if (count == 0) {
+            return;
+        }
+        lastSummaryNanos = now;
+        ServerMetrics.get().logEventsDropped(count);
+        LoggerContext loggerContext = (LoggerContext) getContext();
+        LoggingEvent summary = new LoggingEvent(RingBufferAppender.class.getName(),
+                loggerContext.getLogger(RingBufferAppender.class), Level.WARN,
+                "Dropped {} log events under load (buffer of {} events)", null, new Object[]{count, slots.length()});
+        appenders.appendLoopOnAppenders(summary);
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
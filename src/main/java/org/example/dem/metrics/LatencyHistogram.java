@@ -0,0 +1,158 @@
+package org.example.dem.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек в стиле HDR: логарифмическая шкала с линейными
+ * подкорзинами (32 подкорзины на каждую степень двойки, погрешность не больше 1/32, около 3%).
+ * Запись выполняется без блокировок и без выделения памяти,
+ * расчет перцентилей происходит только при чтении.
+ */
+public class LatencyHistogram {
+    // Количество бит линейной части: значения до 2^SUB_BITS хранятся точно,
+    // каждая следующая степень двойки делится на 2^(SUB_BITS-1) = 32 подкорзины
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+
+    // Максимальное записываемое значение (~18 минут в наносекундах), большие значения обрезаются
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    // Общее количество корзин
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Метод для записи одного значения.
+     *
+     * @param value Значение (обычно в наносекундах). Отрицательные значения считаются нулем.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+
+        // Обновляем максимум CAS-циклом, чтобы не использовать блокировки
+        long currentMax = maxValue.get();
+        while (value > currentMax && !maxValue.compareAndSet(currentMax, value)) {
+            currentMax = maxValue.get();
+        }
+    }
+
+    /**
+     * @return Количество записанных значений.
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return Максимальное записанное значение.
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * @return Среднее значение или 0, если значений нет.
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * Метод для расчета перцентиля по текущему содержимому гистограммы.
+     *
+     * @param percentile Перцентиль в диапазоне от 0 до 100.
+     * @return Верхняя граница корзины, в которую попадает перцентиль.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Метод для добавления всех значений этой гистограммы в другую
+     * (используется для сложения гистограмм разных потоков при чтении).
+     */
+    public void addTo(LatencyHistogram target) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                target.counts.addAndGet(i, count);
+            }
+        }
+        target.totalCount.addAndGet(totalCount.get());
+        target.totalSum.addAndGet(totalSum.get());
+        long max = maxValue.get();
+        long currentMax = target.maxValue.get();
+        while (max > currentMax && !target.maxValue.compareAndSet(currentMax, max)) {
+            currentMax = target.maxValue.get();
+        }
+    }
+
+    /**
+     * Метод для сброса всех значений гистограммы.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    /**
+     * Метод для вычисления номера корзины по значению.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - (SUB_BITS - 1);
+        int sub = (int) (value >>> shift);
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+    }
+
+    /**
+     * Метод для вычисления наибольшего значения, попадающего в корзину.
+     */
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+        long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.dem.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Простой текстовый endpoint для метрик, доступный только с локальной машины.
+ * Отвечает на любой запрос (в том числе HTTP GET, например из curl)
+ * текущим отчетом {@link ServerMetrics#getReport()}.
+ */
+public class MetricsEndpoint implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+    // Порт, на котором доступен endpoint
+    private final int port;
+
+    /**
+     * @param port Локальный порт для endpoint.
+     */
+    public MetricsEndpoint(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Метод для запуска endpoint в отдельном фоновом потоке.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "metrics-endpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress())) {
+            logger.info("Metrics endpoint is listening on port {}", port);
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    serve(socket);
+                } catch (IOException ex) {
+                    logger.debug("Metrics request failed", ex);
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Metrics endpoint stopped", ex);
+        }
+    }
+
+    /**
+     * Метод для ответа на один запрос.
+     */
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(1000);
+
+        // Пытаемся прочитать начало запроса, чтобы понять, HTTP это или нет
+        byte[] request = new byte[1024];
+        InputStream in = socket.getInputStream();
+        int read = 0;
+        try {
+            read = in.read(request);
+        } catch (IOException ignored) {
+            // Клиент ничего не отправил, просто отдаем отчет
+        }
+        boolean http = read > 3 && new String(request, 0, 4, StandardCharsets.US_ASCII).startsWith("GET");
+
+        byte[] body = ServerMetrics.get().getReport().getBytes(StandardCharsets.UTF_8);
+        OutputStream out = socket.getOutputStream();
+        if (http) {
+            String header = "HTTP/1.0 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+                    + body.length + "\r\nConnection: close\r\n\r\n";
+            out.write(header.getBytes(StandardCharsets.US_ASCII));
+        }
+        out.write(body);
+        out.flush();
+    }
+}
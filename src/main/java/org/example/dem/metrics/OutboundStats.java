@@ -0,0 +1,64 @@
+package org.example.dem.metrics;
+
+import org.example.dem.server.Lane;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Счетчики исходящих кадров одного цикла событий: очередь и отправленные кадры по полосам
+ * и время ожидания кадра в очереди.
+ *
+ * <p>Счетчики пишет только поток своего цикла, поэтому обновление - обычное чтение
+ * и запись без атомарных операций ({@code lazySet}), а общие для всех шардов ячейки памяти
+ * на пути каждого кадра не используются. {@link ServerMetrics} суммирует счетчики всех
+ * циклов при чтении метрик.
+ */
+public final class OutboundStats {
+    private static final int LANE_COUNT = Lane.values().length;
+
+    private final AtomicLongArray backlog = new AtomicLongArray(LANE_COUNT);
+    private final AtomicLongArray frames = new AtomicLongArray(LANE_COUNT);
+    private final LatencyHistogram[] wait = new LatencyHistogram[LANE_COUNT];
+
+    OutboundStats() {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            wait[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param lane Порядковый номер полосы ({@link Lane#ordinal()}).
+     */
+    public void frameQueued(int lane) {
+        backlog.lazySet(lane, backlog.get(lane) + 1);
+    }
+
+    /**
+     * @param lane        Порядковый номер полосы ({@link Lane#ordinal()}).
+     * @param waitedNanos Время от постановки кадра в очередь до его отправки.
+     */
+    public void frameSent(int lane, long waitedNanos) {
+        backlog.lazySet(lane, backlog.get(lane) - 1);
+        frames.lazySet(lane, frames.get(lane) + 1);
+        wait[lane].record(waitedNanos);
+    }
+
+    /**
+     * Метод для списания кадров, удаленных из очереди без отправки (при закрытии соединения).
+     */
+    public void framesDropped(int lane, long count) {
+        backlog.lazySet(lane, backlog.get(lane) - count);
+    }
+
+    long getBacklog(int lane) {
+        return backlog.get(lane);
+    }
+
+    long getFrames(int lane) {
+        return frames.get(lane);
+    }
+
+    LatencyHistogram getWait(int lane) {
+        return wait[lane];
+    }
+}
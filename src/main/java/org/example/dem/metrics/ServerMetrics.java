@@ -0,0 +1,514 @@
+package org.example.dem.metrics;
+
+import org.example.dem.server.Lane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Метрики сервера чата: счетчики сообщений, гистограммы задержек,
+ * количество соединений и размер исходящих очередей.
+ * Все методы записи не используют блокировок и не выделяют память,
+ * поэтому их можно вызывать прямо из потоков обработки клиентов.
+ * Счетчики исходящих кадров, которые обновляются на каждый кадр, ведет каждый цикл
+ * событий отдельно ({@link OutboundStats}); здесь они только суммируются при чтении.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final Logger logger = LoggerFactory.getLogger(ServerMetrics.class);
+
+    // Имя, под которым MBean регистрируется в JMX
+    private static final String OBJECT_NAME = "org.example.dem:type=ServerMetrics";
+
+    // Полосы исходящих кадров (объявлены до экземпляра, который их использует)
+    private static final Lane[] LANES = Lane.values();
+
+    // Единственный экземпляр метрик на процесс
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    // Счетчик входящих сообщений
+    private final LongAdder inboundMessages = new LongAdder();
+
+    // Скорости за последнюю секунду, пересчитываются фоновым потоком
+    private volatile long inboundPerSecond;
+    private volatile long outboundPerSecond;
+    private long lastInbound;
+    private long lastOutbound;
+
+    // Гистограммы задержек (в наносекундах); маршрутизация измеряется до постановки кадров
+    // в очереди шардов, время до отправки в сокет учитывают гистограммы ожидания полос
+    private final LatencyHistogram routeLatency = new LatencyHistogram();
+    private final LatencyHistogram broadcastFanOut = new LatencyHistogram();
+
+    // Количество соединений по состояниям
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger handshakingConnections = new AtomicInteger();
+
+    // Сообщения, отклоненные конвейером обработки, и сообщения, измененные фильтром
+    private final LongAdder inboundRejected = new LongAdder();
+    private final LongAdder contentFiltered = new LongAdder();
+
+    // Хранилище вложений: повторные загрузки и удаленные вложения
+    private final LongAdder attachmentsDeduplicated = new LongAdder();
+    private final LongAdder attachmentsCollected = new LongAdder();
+
+    // Кэш миниатюр: попадания, промахи и вытеснения
+    private final LongAdder thumbnailCacheHits = new LongAdder();
+    private final LongAdder thumbnailCacheMisses = new LongAdder();
+    private final LongAdder thumbnailCacheEvictions = new LongAdder();
+
+    // Сжатие соединений: байты кадров до и после сжатия, выданные контексты и отказы
+    private final LongAdder compressionInputBytes = new LongAdder();
+    private final LongAdder compressionOutputBytes = new LongAdder();
+    private final AtomicInteger compressionContexts = new AtomicInteger();
+    private final LongAdder compressionDeclined = new LongAdder();
+
+    // TLS: длительность рукопожатий и рукопожатия, отклоненные из-за заполненного пула
+    private final LatencyHistogram tlsHandshake = new LatencyHistogram();
+    private final LongAdder tlsHandshakesRejected = new LongAdder();
+
+    // События журнала, отброшенные асинхронным appender'ом под нагрузкой
+    private final LongAdder logEventsDropped = new LongAdder();
+
+    // Счетчики исходящих кадров по циклам событий; суммируются при чтении
+    private final List<OutboundStats> outboundStats = new CopyOnWriteArrayList<>();
+
+    // Источник максимального размера очереди одного клиента (задается сервером)
+    private volatile LongSupplier maxBacklogProbe = () -> 0;
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * @return Общий экземпляр метрик.
+     */
+    public static ServerMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Метод для регистрации MBean и запуска фонового пересчета скоростей.
+     */
+    public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception ex) {
+            logger.warn("Unable to register metrics MBean", ex);
+        }
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sampleRates, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Метод для пересчета скоростей за последнюю секунду.
+     */
+    private void sampleRates() {
+        long inbound = inboundMessages.sum();
+        long outbound = getOutboundFramesTotal();
+        inboundPerSecond = inbound - lastInbound;
+        outboundPerSecond = outbound - lastOutbound;
+        lastInbound = inbound;
+        lastOutbound = outbound;
+    }
+
+    public void messageReceived() {
+        inboundMessages.increment();
+    }
+
+    public void recordRouteLatency(long nanos) {
+        routeLatency.record(nanos);
+    }
+
+    public void recordBroadcastFanOut(long nanos) {
+        broadcastFanOut.record(nanos);
+    }
+
+    public void connectionAccepted() {
+        handshakingConnections.incrementAndGet();
+    }
+
+    public void handshakeCompleted() {
+        handshakingConnections.decrementAndGet();
+        activeConnections.incrementAndGet();
+    }
+
+    public void handshakeFailed() {
+        handshakingConnections.decrementAndGet();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Метод для создания счетчиков исходящих кадров одного потока (цикла событий).
+     * Счетчики учитываются в метриках до конца работы процесса.
+     */
+    public OutboundStats createOutboundStats() {
+        OutboundStats stats = new OutboundStats();
+        outboundStats.add(stats);
+        return stats;
+    }
+
+    public void messageRejected() {
+        inboundRejected.increment();
+    }
+
+    public void contentFiltered() {
+        contentFiltered.increment();
+    }
+
+    public void attachmentDeduplicated() {
+        attachmentsDeduplicated.increment();
+    }
+
+    public void attachmentCollected() {
+        attachmentsCollected.increment();
+    }
+
+    public void thumbnailCacheHit() {
+        thumbnailCacheHits.increment();
+    }
+
+    public void thumbnailCacheMiss() {
+        thumbnailCacheMisses.increment();
+    }
+
+    public void thumbnailCacheEviction() {
+        thumbnailCacheEvictions.increment();
+    }
+
+    /**
+     * @param frameBytes      Размер кадра до сжатия.
+     * @param compressedBytes Размер сжатых данных.
+     */
+    public void frameCompressed(int frameBytes, int compressedBytes) {
+        compressionInputBytes.add(frameBytes);
+        compressionOutputBytes.add(compressedBytes);
+    }
+
+    public void compressionContextAcquired() {
+        compressionContexts.incrementAndGet();
+    }
+
+    public void compressionContextReleased() {
+        compressionContexts.decrementAndGet();
+    }
+
+    public void compressionDeclined() {
+        compressionDeclined.increment();
+    }
+
+    public void tlsHandshakeCompleted(long nanos) {
+        tlsHandshake.record(nanos);
+    }
+
+    public void tlsHandshakeRejected() {
+        tlsHandshakesRejected.increment();
+    }
+
+    public void logEventsDropped(long count) {
+        logEventsDropped.add(count);
+    }
+
+    /**
+     * @param probe Функция, возвращающая наибольшую очередь среди клиентов.
+     */
+    public void setMaxBacklogProbe(LongSupplier probe) {
+        this.maxBacklogProbe = probe;
+    }
+
+    @Override
+    public long getInboundMessagesTotal() {
+        return inboundMessages.sum();
+    }
+
+    @Override
+    public long getInboundMessagesPerSecond() {
+        return inboundPerSecond;
+    }
+
+    @Override
+    public long getOutboundFramesTotal() {
+        long total = 0;
+        for (Lane lane : LANES) {
+            total += laneFrames(lane);
+        }
+        return total;
+    }
+
+    @Override
+    public long getOutboundFramesPerSecond() {
+        return outboundPerSecond;
+    }
+
+    @Override
+    public long getRouteLatencyP50Micros() {
+        return micros(routeLatency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getRouteLatencyP99Micros() {
+        return micros(routeLatency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getRouteLatencyP999Micros() {
+        return micros(routeLatency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getRouteLatencyMaxMicros() {
+        return micros(routeLatency.getMax());
+    }
+
+    @Override
+    public long getBroadcastFanOutP50Micros() {
+        return micros(broadcastFanOut.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getBroadcastFanOutP99Micros() {
+        return micros(broadcastFanOut.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getBroadcastFanOutMaxMicros() {
+        return micros(broadcastFanOut.getMax());
+    }
+
+    @Override
+    public long getOutboundBacklogTotal() {
+        long total = 0;
+        for (Lane lane : LANES) {
+            total += laneBacklog(lane);
+        }
+        return total;
+    }
+
+    @Override
+    public long getOutboundBacklogMax() {
+        return maxBacklogProbe.getAsLong();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getHandshakingConnections() {
+        return handshakingConnections.get();
+    }
+
+    @Override
+    public long getControlLaneBacklog() {
+        return laneBacklog(Lane.CONTROL);
+    }
+
+    @Override
+    public long getChatLaneBacklog() {
+        return laneBacklog(Lane.CHAT);
+    }
+
+    @Override
+    public long getControlLaneWaitP99Micros() {
+        return micros(laneWait(Lane.CONTROL).getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getChatLaneWaitP99Micros() {
+        return micros(laneWait(Lane.CHAT).getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getInboundRejectedTotal() {
+        return inboundRejected.sum();
+    }
+
+    @Override
+    public long getContentFilteredTotal() {
+        return contentFiltered.sum();
+    }
+
+    @Override
+    public long getAttachmentsDeduplicated() {
+        return attachmentsDeduplicated.sum();
+    }
+
+    @Override
+    public long getAttachmentsCollected() {
+        return attachmentsCollected.sum();
+    }
+
+    @Override
+    public long getThumbnailCacheHits() {
+        return thumbnailCacheHits.sum();
+    }
+
+    @Override
+    public long getThumbnailCacheMisses() {
+        return thumbnailCacheMisses.sum();
+    }
+
+    @Override
+    public long getThumbnailCacheEvictions() {
+        return thumbnailCacheEvictions.sum();
+    }
+
+    @Override
+    public long getThumbnailCacheHitRatePercent() {
+        long hits = thumbnailCacheHits.sum();
+        long total = hits + thumbnailCacheMisses.sum();
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+
+    @Override
+    public int getCompressionContextsActive() {
+        return compressionContexts.get();
+    }
+
+    @Override
+    public long getCompressionDeclinedTotal() {
+        return compressionDeclined.sum();
+    }
+
+    @Override
+    public long getCompressionRatioPercent() {
+        long input = compressionInputBytes.sum();
+        return input == 0 ? 0 : compressionOutputBytes.sum() * 100 / input;
+    }
+
+    @Override
+    public long getTlsHandshakesTotal() {
+        return tlsHandshake.getCount();
+    }
+
+    @Override
+    public long getTlsHandshakeP99Micros() {
+        return micros(tlsHandshake.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getTlsHandshakesRejected() {
+        return tlsHandshakesRejected.sum();
+    }
+
+    @Override
+    public long getLogEventsDroppedTotal() {
+        return logEventsDropped.sum();
+    }
+
+    @Override
+    public void resetHistograms() {
+        routeLatency.reset();
+        broadcastFanOut.reset();
+        tlsHandshake.reset();
+        for (OutboundStats stats : outboundStats) {
+            for (Lane lane : LANES) {
+                stats.getWait(lane.ordinal()).reset();
+            }
+        }
+    }
+
+    /**
+     * Метод для формирования текстового отчета (по одной метрике на строку).
+     *
+     * @return Отчет в формате "имя значение".
+     */
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        appendLine(report, "chat_inbound_messages_total", getInboundMessagesTotal());
+        appendLine(report, "chat_inbound_messages_per_second", getInboundMessagesPerSecond());
+        appendLine(report, "chat_inbound_rejected_total", getInboundRejectedTotal());
+        appendLine(report, "chat_content_filtered_total", getContentFilteredTotal());
+        appendLine(report, "chat_outbound_frames_total", getOutboundFramesTotal());
+        appendLine(report, "chat_outbound_frames_per_second", getOutboundFramesPerSecond());
+        appendHistogram(report, "chat_route_latency_micros", routeLatency);
+        appendHistogram(report, "chat_broadcast_fanout_micros", broadcastFanOut);
+        appendLine(report, "chat_outbound_backlog_total", getOutboundBacklogTotal());
+        appendLine(report, "chat_outbound_backlog_max", getOutboundBacklogMax());
+        for (Lane lane : LANES) {
+            String prefix = "chat_lane_" + lane.getMetricName();
+            appendLine(report, prefix + "_backlog", laneBacklog(lane));
+            appendLine(report, prefix + "_frames_total", laneFrames(lane));
+            appendHistogram(report, prefix + "_wait_micros", laneWait(lane));
+        }
+        appendLine(report, "chat_connections_active", getActiveConnections());
+        appendLine(report, "chat_connections_handshaking", getHandshakingConnections());
+        appendLine(report, "chat_attachments_deduplicated_total", getAttachmentsDeduplicated());
+        appendLine(report, "chat_attachments_collected_total", getAttachmentsCollected());
+        appendLine(report, "chat_thumbnail_cache_hits_total", getThumbnailCacheHits());
+        appendLine(report, "chat_thumbnail_cache_misses_total", getThumbnailCacheMisses());
+        appendLine(report, "chat_thumbnail_cache_evictions_total", getThumbnailCacheEvictions());
+        appendLine(report, "chat_thumbnail_cache_hit_rate_percent", getThumbnailCacheHitRatePercent());
+        appendLine(report, "chat_compression_contexts_active", getCompressionContextsActive());
+        appendLine(report, "chat_compression_declined_total", getCompressionDeclinedTotal());
+        appendLine(report, "chat_compression_input_bytes_total", compressionInputBytes.sum());
+        appendLine(report, "chat_compression_output_bytes_total", compressionOutputBytes.sum());
+        appendLine(report, "chat_compression_ratio_percent", getCompressionRatioPercent());
+        appendHistogram(report, "chat_tls_handshake_micros", tlsHandshake);
+        appendLine(report, "chat_tls_handshakes_rejected_total", getTlsHandshakesRejected());
+        appendLine(report, "chat_log_events_dropped_total", getLogEventsDroppedTotal());
+        return report.toString();
+    }
+
+    private long laneBacklog(Lane lane) {
+        long total = 0;
+        for (OutboundStats stats : outboundStats) {
+            total += stats.getBacklog(lane.ordinal());
+        }
+        return total;
+    }
+
+    private long laneFrames(Lane lane) {
+        long total = 0;
+        for (OutboundStats stats : outboundStats) {
+            total += stats.getFrames(lane.ordinal());
+        }
+        return total;
+    }
+
+    /**
+     * @return Сумма гистограмм времени ожидания полосы во всех циклах событий.
+     */
+    private LatencyHistogram laneWait(Lane lane) {
+        LatencyHistogram total = new LatencyHistogram();
+        for (OutboundStats stats : outboundStats) {
+            stats.getWait(lane.ordinal()).addTo(total);
+        }
+        return total;
+    }
+
+    private static void appendHistogram(StringBuilder report, String name, LatencyHistogram histogram) {
+        appendLine(report, name + "_count", histogram.getCount());
+        appendLine(report, name + "_p50", micros(histogram.getValueAtPercentile(50)));
+        appendLine(report, name + "_p90", micros(histogram.getValueAtPercentile(90)));
+        appendLine(report, name + "_p99", micros(histogram.getValueAtPercentile(99)));
+        appendLine(report, name + "_p999", micros(histogram.getValueAtPercentile(99.9)));
+        appendLine(report, name + "_max", micros(histogram.getMax()));
+    }
+
+    private static void appendLine(StringBuilder report, String name, long value) {
+        report.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.dem.metrics;
+
+/**
+ * JMX-интерфейс для просмотра метрик сервера чата (например, через jconsole).
+ * Задержки возвращаются в микросекундах.
+ */
+public interface ServerMetricsMBean {
+    long getInboundMessagesTotal();
+
+    long getInboundMessagesPerSecond();
+
+    long getControlLaneBacklog();
+
+    long getChatLaneBacklog();
+
+    long getControlLaneWaitP99Micros();
+
+    long getChatLaneWaitP99Micros();
+
+    long getInboundRejectedTotal();
+
+    long getContentFilteredTotal();
+
+    long getOutboundFramesTotal();
+
+    long getOutboundFramesPerSecond();
+
+    long getRouteLatencyP50Micros();
+
+    long getRouteLatencyP99Micros();
+
+    long getRouteLatencyP999Micros();
+
+    long getRouteLatencyMaxMicros();
+
+    long getBroadcastFanOutP50Micros();
+
+    long getBroadcastFanOutP99Micros();
+
+    long getBroadcastFanOutMaxMicros();
+
+    long getOutboundBacklogTotal();
+
+    long getOutboundBacklogMax();
+
+    int getActiveConnections();
+
+    int getHandshakingConnections();
+
+    long getAttachmentsDeduplicated();
+
+    long getAttachmentsCollected();
+
+    long getThumbnailCacheHits();
+
+    long getThumbnailCacheMisses();
+
+    long getThumbnailCacheEvictions();
+
+    long getThumbnailCacheHitRatePercent();
+
+    int getCompressionContextsActive();
+
+    long getCompressionDeclinedTotal();
+
+    long getCompressionRatioPercent();
+
+    long getTlsHandshakesTotal();
+
+    long getTlsHandshakeP99Micros();
+
+    long getTlsHandshakesRejected();
+
+    long getLogEventsDroppedTotal();
+
+    String getReport();
+
+    void resetHistograms();
+}
@@ -0,0 +1,187 @@
+package org.example.dem.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Автомат Ахо-Корасик для поиска множества подстрок без учета регистра.
+ *
+ * <p>Автомат строится один раз и хранится как полная таблица переходов (DFA): переходы
+ * по ссылкам неудачи вычислены заранее, поэтому на каждый символ текста приходится
+ * ровно один переход - два чтения из массивов. Символы сжимаются в небольшой алфавит
+ * через таблицу классов на все 65536 значений {@code char}; все символы, которых нет
+ * в шаблонах, попадают в класс 0. Верхний и нижний регистр одной буквы получают один
+ * класс, поэтому при поиске не вызывается {@code toLowerCase}.
+ *
+ * <p>Поиск выполняется за один проход по тексту за линейное время, без возвратов и без
+ * выделения памяти (кроме итоговой строки, если в ней что-то замаскировано).
+ * Экземпляр неизменяем и может использоваться из любых потоков.
+ */
+public final class AhoCorasick {
+    // Класс символа для каждого значения char
+    private final short[] charClass = new short[Character.MAX_VALUE + 1];
+
+    // Размер сжатого алфавита
+    private final int alphabetSize;
+
+    // Таблица переходов: delta[смещение состояния + класс] = смещение следующего состояния;
+    // отрицательное значение (~смещение) означает, что в следующем состоянии заканчивается шаблон
+    private final int[] delta;
+
+    // Длина самого длинного шаблона, заканчивающегося в состоянии (0 - нет совпадения)
+    private final int[] matchLength;
+
+    /**
+     * @param patterns Шаблоны; пустые строки пропускаются.
+     */
+    public AhoCorasick(Collection<String> patterns) {
+        // Строим сжатый алфавит из символов шаблонов
+        // Класс выбирается по строчной форме символа; уже занятые значения не перезаписываются,
+        // а исходный символ шаблона (например, 'İ', чья строчная форма - 'i') получает класс своей
+        // строчной формы
+        int classes = 1;
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char original = pattern.charAt(i);
+                char c = Character.toLowerCase(original);
+                if (charClass[c] == 0) {
+                    short cls = (short) classes++;
+                    charClass[c] = cls;
+                    assignClass(Character.toUpperCase(c), cls);
+                    assignClass(Character.toTitleCase(c), cls);
+                }
+                assignClass(original, charClass[c]);
+            }
+        }
+        alphabetSize = classes;
+
+        // Строим бор: строки таблицы переходов, -1 - перехода нет
+        List<int[]> rows = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        rows.add(newRow());
+        lengths.add(0);
+        for (String pattern : patterns) {
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int cls = charClass[Character.toLowerCase(pattern.charAt(i))];
+                if (rows.get(state)[cls] < 0) {
+                    rows.get(state)[cls] = rows.size();
+                    rows.add(newRow());
+                    lengths.add(0);
+                }
+                state = rows.get(state)[cls];
+            }
+            lengths.set(state, Math.max(lengths.get(state), pattern.length()));
+        }
+
+        // Обходим бор в ширину, вычисляем ссылки неудачи и достраиваем полную таблицу переходов
+        int states = rows.size();
+        int[] fail = new int[states];
+        matchLength = new int[states];
+        for (int s = 0; s < states; s++) {
+            matchLength[s] = lengths.get(s);
+        }
+        Queue<Integer> queue = new ArrayDeque<>();
+        int[] root = rows.get(0);
+        for (int cls = 0; cls < alphabetSize; cls++) {
+            if (root[cls] < 0) {
+                root[cls] = 0;
+            } else {
+                fail[root[cls]] = 0;
+                queue.add(root[cls]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int[] row = rows.get(state);
+            int[] failRow = rows.get(fail[state]);
+            matchLength[state] = Math.max(matchLength[state], matchLength[fail[state]]);
+            for (int cls = 0; cls < alphabetSize; cls++) {
+                if (row[cls] < 0) {
+                    row[cls] = failRow[cls];
+                } else {
+                    fail[row[cls]] = failRow[cls];
+                    queue.add(row[cls]);
+                }
+            }
+        }
+
+        // Укладываем таблицу в один массив со смещениями вместо номеров состояний
+        delta = new int[states * alphabetSize];
+        for (int s = 0; s < states; s++) {
+            int[] row = rows.get(s);
+            for (int cls = 0; cls < alphabetSize; cls++) {
+                int next = row[cls];
+                int offset = next * alphabetSize;
+                delta[s * alphabetSize + cls] = matchLength[next] > 0 ? ~offset : offset;
+            }
+        }
+    }
+
+    private void assignClass(char c, short cls) {
+        if (charClass[c] == 0) {
+            charClass[c] = cls;
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /**
+     * Метод для поиска первого вхождения любого шаблона.
+     *
+     * @param text Текст.
+     * @return Индекс символа сразу после первого найденного шаблона или -1, если шаблонов нет.
+     */
+    public int find(CharSequence text) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = delta[state + charClass[text.charAt(i)]];
+            if (state < 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Метод для замены всех вхождений шаблонов символом-заменителем.
+     *
+     * @param text        Текст.
+     * @param replacement Символ, которым закрываются найденные шаблоны.
+     * @return Исходная строка, если шаблонов нет, иначе новая строка с замаскированными шаблонами.
+     */
+    public String mask(String text, char replacement) {
+        char[] masked = null;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = delta[state + charClass[text.charAt(i)]];
+            if (state < 0) {
+                state = ~state;
+                if (masked == null) {
+                    masked = text.toCharArray();
+                }
+                int length = matchLength[state / alphabetSize];
+                Arrays.fill(masked, i + 1 - length, i + 1, replacement);
+            }
+        }
+        return masked == null ? text : new String(masked);
+    }
+
+    /**
+     * @return Количество состояний автомата.
+     */
+    public int getStateCount() {
+        return matchLength.length;
+    }
+}
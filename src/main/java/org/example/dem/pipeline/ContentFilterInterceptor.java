@@ -0,0 +1,99 @@
+package org.example.dem.pipeline;
+
+import org.example.dem.exception.ServerException;
+import org.example.dem.metrics.ServerMetrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Этап фильтрации запрещенных слов и ссылок в тексте сообщений.
+ * Поиск выполняется автоматом {@link AhoCorasick} за один проход по тексту.
+ * Экземпляр не хранит состояния соединения и общий для всех соединений.
+ */
+public class ContentFilterInterceptor implements MessageInterceptor {
+    // Список шаблонов по умолчанию
+    private static final String DEFAULT_PATTERNS = "/filter/banned.txt";
+
+    // Символ, которым закрываются запрещенные слова
+    private static final char MASK = '*';
+
+    /**
+     * Действие при найденном шаблоне.
+     */
+    public enum Action {
+        // Закрыть найденные слова символами '*'
+        MASK,
+        // Отклонить сообщение целиком
+        REJECT
+    }
+
+    private final AhoCorasick automaton;
+    private final Action action;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    /**
+     * @param automaton Автомат с запрещенными шаблонами.
+     * @param action    Действие при найденном шаблоне.
+     */
+    public ContentFilterInterceptor(AhoCorasick automaton, Action action) {
+        this.automaton = automaton;
+        this.action = action;
+    }
+
+    @Override
+    public boolean intercept(InboundMessage message) {
+        String content = message.getContent();
+        if (content == null) {
+            return true;
+        }
+        if (action == Action.REJECT) {
+            if (automaton.find(content) >= 0) {
+                metrics.contentFiltered();
+                return message.reject("Message contains banned words or links.");
+            }
+            return true;
+        }
+        String masked = automaton.mask(content, MASK);
+        if (masked != content) {
+            metrics.contentFiltered();
+            message.setContent(masked);
+        }
+        return true;
+    }
+
+    /**
+     * Метод для загрузки шаблонов: по одному на строку, пустые строки и строки с '#' пропускаются.
+     *
+     * @param file Файл со списком шаблонов (пустая строка - встроенный список).
+     * @return Шаблоны.
+     */
+    public static List<String> loadPatterns(String file) {
+        try (InputStream input = file.isEmpty()
+                ? ContentFilterInterceptor.class.getResourceAsStream(DEFAULT_PATTERNS)
+                : Files.newInputStream(Path.of(file))) {
+            if (input == null) {
+                throw new ServerException("Filter patterns not found: " + DEFAULT_PATTERNS, null);
+            }
+            List<String> patterns = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    patterns.add(line);
+                }
+            }
+            return patterns;
+        } catch (IOException ex) {
+            throw new ServerException("Error loading filter patterns " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.dem.pipeline;
+
+import org.json.JSONObject;
+
+/**
+ * Входящее сообщение клиента, которое проходит через конвейер обработки.
+ * Один экземпляр переиспользуется для всех сообщений соединения,
+ * так как сообщения одного соединения обрабатываются последовательно одним потоком.
+ */
+public class InboundMessage {
+    private String sender;
+    private JSONObject json;
+    private String type;
+    private String content;
+    private long receivedAt;
+    private String rejectReason;
+
+    /**
+     * Метод для подготовки экземпляра к обработке следующего сообщения.
+     *
+     * @param sender     Имя отправителя.
+     * @param json       Разобранное сообщение.
+     * @param receivedAt Время получения (System.nanoTime()).
+     */
+    public void reset(String sender, JSONObject json, long receivedAt) {
+        this.sender = sender;
+        this.json = json;
+        this.type = json.optString("type", "");
+        this.content = json.optString("content", null);
+        this.receivedAt = receivedAt;
+        this.rejectReason = null;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public JSONObject getJson() {
+        return json;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return Текст сообщения (с учетом изменений, внесенных обработчиками) или null.
+     */
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * @return Причина отказа, которую нужно сообщить отправителю, или null.
+     */
+    public String getRejectReason() {
+        return rejectReason;
+    }
+
+    /**
+     * Метод для отказа в обработке сообщения.
+     *
+     * @param reason Причина, которая будет отправлена клиенту.
+     * @return Всегда false, чтобы обработчик мог вернуть результат этого вызова.
+     */
+    public boolean reject(String reason) {
+        this.rejectReason = reason;
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.dem.pipeline;
+
+import org.example.dem.exception.ServerException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Упорядоченный конвейер обработки входящих сообщений
+ * (например, проверка -> ограничение частоты -> фильтр -> маршрутизация).
+ * Порядок этапов задается в конфигурации списком имен.
+ */
+public class InboundPipeline {
+    private final MessageInterceptor[] interceptors;
+
+    /**
+     * @param interceptors Этапы в порядке выполнения.
+     */
+    public InboundPipeline(List<MessageInterceptor> interceptors) {
+        this.interceptors = interceptors.toArray(new MessageInterceptor[0]);
+    }
+
+    /**
+     * Метод для прохождения сообщения через все этапы.
+     *
+     * @return true, если сообщение прошло все этапы.
+     */
+    public boolean process(InboundMessage message) {
+        for (MessageInterceptor interceptor : interceptors) {
+            if (!interceptor.intercept(message)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Метод для разбора списка этапов из конфигурации.
+     *
+     * @param config    Имена этапов через запятую.
+     * @param available Известные имена этапов.
+     * @return Имена этапов в порядке выполнения.
+     * @throws ServerException Если указан неизвестный этап.
+     */
+    public static List<String> parseStages(String config, Collection<String> available) {
+        List<String> stages = new ArrayList<>();
+        for (String name : config.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!available.contains(name)) {
+                throw new ServerException("Unknown pipeline stage: " + name, null);
+            }
+            stages.add(name);
+        }
+        return stages;
+    }
+
+    /**
+     * Метод для сборки конвейера по списку имен.
+     *
+     * @param stages  Имена этапов в порядке выполнения.
+     * @param factory Создание этапа по имени; этап может быть общим для всех соединений
+     *                или создаваться для каждого соединения (например, если у него есть состояние).
+     */
+    public static InboundPipeline build(List<String> stages, Map<String, Supplier<MessageInterceptor>> factory) {
+        List<MessageInterceptor> interceptors = new ArrayList<>(stages.size());
+        for (String stage : stages) {
+            MessageInterceptor interceptor = factory.get(stage).get();
+            if (interceptor != null) {
+                interceptors.add(interceptor);
+            }
+        }
+        return new InboundPipeline(interceptors);
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.dem.pipeline;
+
+/**
+ * Один этап конвейера обработки входящих сообщений.
+ */
+@FunctionalInterface
+public interface MessageInterceptor {
+    /**
+     * Метод для обработки сообщения.
+     *
+     * @param message Входящее сообщение; этап может изменить его текст.
+     * @return true, чтобы передать сообщение следующему этапу, false, чтобы остановить обработку.
+     */
+    boolean intercept(InboundMessage message);
+}
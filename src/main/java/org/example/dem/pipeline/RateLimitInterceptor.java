@@ -0,0 +1,37 @@
+package org.example.dem.pipeline;
+
+/**
+ * Этап ограничения частоты сообщений одного соединения (token bucket).
+ * Экземпляр хранит состояние, поэтому создается отдельно для каждого соединения.
+ */
+public class RateLimitInterceptor implements MessageInterceptor {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param messagesPerSecond Средняя допустимая частота сообщений.
+     * @param burst             Сколько сообщений можно отправить подряд.
+     */
+    public RateLimitInterceptor(double messagesPerSecond, int burst) {
+        this.tokensPerNano = messagesPerSecond / NANOS_PER_SECOND;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    @Override
+    public boolean intercept(InboundMessage message) {
+        long now = message.getReceivedAt();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens < 1) {
+            return message.reject("Rate limit exceeded, message dropped.");
+        }
+        tokens--;
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.dem.pipeline;
+
+/**
+ * Этап проверки формата сообщения: тип указан, у сообщения чата есть текст
+ * и его длина не превышает лимит.
+ */
+public class ValidationInterceptor implements MessageInterceptor {
+    private final int maxContentLength;
+
+    /**
+     * @param maxContentLength Максимальная длина текста сообщения.
+     */
+    public ValidationInterceptor(int maxContentLength) {
+        this.maxContentLength = maxContentLength;
+    }
+
+    @Override
+    public boolean intercept(InboundMessage message) {
+        if (message.getType().isEmpty()) {
+            return message.reject("Message type is missing.");
+        }
+        if (message.getType().equals("message")) {
+            if (message.getContent() == null) {
+                return message.reject("Message content is missing.");
+            }
+            if (message.getContent().length() > maxContentLength) {
+                return message.reject("Message is too long (max " + maxContentLength + " characters).");
+            }
+        }
+        return true;
+    }
+}
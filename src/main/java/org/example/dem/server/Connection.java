@@ -0,0 +1,423 @@
+package org.example.dem.server;
+
+import org.example.dem.compression.CompressionContext;
+import org.example.dem.metrics.OutboundStats;
+import org.example.dem.metrics.ServerMetrics;
+import org.example.dem.tls.TlsChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+
+/**
+ * Соединение с клиентом, принадлежащее одному циклу событий.
+ * Разбивает входящие байты на строки и накапливает исходящие кадры,
+ * которые цикл событий записывает в сокет пачкой в конце итерации.
+ *
+ * <p>Исходящие кадры разложены по полосам {@link Lane}. При записи полосы выбираются
+ * по кругу: текущая полоса отправляет подряд не больше своего веса кадров, затем
+ * очередь переходит к следующей непустой полосе. Начатый кадр всегда дописывается
+ * до конца, прежде чем полоса сменится.
+ *
+ * <p>Если для соединения включено сжатие, кадр сжимается в момент выбора для отправки
+ * (а не при постановке в очередь), чтобы поток deflate шел в том же порядке, в котором
+ * кадры уходят в сокет после переупорядочивания полосами. Входящие байты после строки,
+ * включившей сжатие, распаковываются перед разбором на строки.
+ *
+ * <p>Если канал - {@link TlsChannel}, соединение не пишет данные до завершения рукопожатия
+ * и дописывает зашифрованные байты, которые сокет не принял, перед следующими кадрами.
+ *
+ * <p>Все методы, кроме {@link #getQueuedFrames()}, вызываются только из потока цикла.
+ */
+public class Connection {
+    // Размер буфера чтения
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    // Максимальная длина одной входящей строки
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private static final ServerMetrics metrics = ServerMetrics.get();
+
+    // Счетчики соединений без цикла событий (бенчмарки, один поток)
+    private static final OutboundStats DETACHED_STATS = metrics.createOutboundStats();
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final EventLoop loop;
+    private final ByteChannel channel;
+    // Канал TLS (null - соединение без шифрования)
+    private final TlsChannel tls;
+    private final ConnectionHandler handler;
+    private final OutboundStats stats;
+    private SelectionKey key;
+
+    // Буфер чтения и накопитель текущей строки
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    // Кадры, ожидающие записи в сокет, по полосам
+    private final FrameQueue[] lanes = new FrameQueue[LANES.length];
+    private final int[] laneWeights;
+    // Полоса, которая сейчас отправляет кадры, и сколько кадров ей еще можно отправить подряд
+    private int activeLane;
+    private int laneCredits;
+    private long outboundBytes;
+    private volatile int queuedFrames;
+    private boolean flushScheduled;
+    private boolean closed;
+    // Закрытие из-за переполнения очереди уже запланировано, новые кадры не принимаются
+    private boolean closing;
+
+    // Контекст сжатия (null - соединение без сжатия) и байты, которые нужно дописать до следующего кадра
+    private CompressionContext compression;
+    private ByteBuffer pending;
+
+    /**
+     * @param loop    Цикл событий, которому принадлежит соединение (null - запись сразу в канал).
+     * @param channel Канал соединения.
+     * @param handler Обработчик событий соединения.
+     */
+    public Connection(EventLoop loop, ByteChannel channel, ConnectionHandler handler) {
+        this.loop = loop;
+        this.channel = channel;
+        this.handler = handler;
+        this.stats = loop != null ? loop.getOutboundStats() : DETACHED_STATS;
+        this.laneWeights = loop != null ? loop.getLaneWeights() : Lane.defaultWeights();
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new FrameQueue();
+        }
+        this.tls = channel instanceof TlsChannel ? (TlsChannel) channel : null;
+        if (tls != null) {
+            // Рукопожатие продолжается в потоке цикла после задач в пуле TLS
+            tls.setWakeup(() -> loop.execute(this::resumeTls));
+        }
+    }
+
+    public EventLoop getLoop() {
+        return loop;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * @return Количество кадров, ожидающих отправки (можно читать из любого потока).
+     */
+    public int getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    void opened() {
+        handler.onOpen(this);
+    }
+
+    /**
+     * Метод для постановки кадра чата в очередь на отправку.
+     *
+     * @param frame Байты кадра.
+     */
+    public void write(byte[] frame) {
+        write(frame, Lane.CHAT);
+    }
+
+    /**
+     * Метод для постановки готового кадра (с переводом строки) в очередь на отправку.
+     * Массив байтов не копируется, поэтому один закодированный кадр
+     * может быть отправлен многим соединениям.
+     *
+     * @param frame Байты кадра.
+     * @param lane  Полоса, по которой отправляется кадр.
+     */
+    public void write(byte[] frame, Lane lane) {
+        if (closed || closing) {
+            return;
+        }
+        lanes[lane.ordinal()].add(ByteBuffer.wrap(frame), System.nanoTime());
+        outboundBytes += frame.length;
+        queuedFrames++;
+        stats.frameQueued(lane.ordinal());
+
+        if (loop == null) {
+            flush();
+        } else if (outboundBytes > loop.getMaxOutboundBytes()) {
+            // Клиент не успевает читать: закрываем соединение, чтобы не расходовать память.
+            // Закрытие откладывается, так как запись может идти во время обхода списка получателей
+            closing = true;
+            loop.execute(this::close);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            loop.scheduleFlush(this);
+        }
+    }
+
+    /**
+     * Метод для включения сжатия в обе стороны.
+     * Вызывается из обработчика строки: все байты после текущей строки распаковываются,
+     * все кадры после ответа {@code reply} сжимаются.
+     *
+     * @param context Контекст сжатия; возвращается в пул при закрытии соединения.
+     * @param reply   Кадр подтверждения, который отправляется без сжатия раньше всех кадров в очереди.
+     */
+    public void enableCompression(CompressionContext context, byte[] reply) {
+        if (closed) {
+            context.release();
+            return;
+        }
+        compression = context;
+        pending = ByteBuffer.wrap(reply);
+        outboundBytes += reply.length;
+        if (loop == null) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            loop.scheduleFlush(this);
+        }
+    }
+
+    /**
+     * Метод для кодирования строки в кадр протокола (UTF-8 с переводом строки).
+     */
+    public static byte[] encode(String frame) {
+        byte[] text = frame.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[text.length + 1];
+        System.arraycopy(text, 0, bytes, 0, text.length);
+        bytes[text.length] = '\n';
+        return bytes;
+    }
+
+    /**
+     * Метод для записи накопленных кадров в канал.
+     * Если сокет не принял все данные, соединение подписывается на готовность к записи.
+     */
+    void flush() {
+        flushScheduled = false;
+        if (closed) {
+            return;
+        }
+        try {
+            if (tls != null && !tls.isReady()) {
+                // До завершения рукопожатия данные не пишутся; канал сам разбудит соединение
+                if (!tls.flushNetwork()) {
+                    subscribeWrite();
+                }
+                return;
+            }
+            while (true) {
+                if (pending != null) {
+                    // Сначала дописываются сжатые байты предыдущего кадра
+                    outboundBytes -= channel.write(pending);
+                    if (pending.hasRemaining()) {
+                        subscribeWrite();
+                        return;
+                    }
+                    pending = null;
+                }
+                FrameQueue queue = lanes[activeLane];
+                ByteBuffer buffer = queue.peek();
+                // Полоса пуста или исчерпала свой вес (начатый кадр дописывается в любом случае)
+                if (buffer == null || (laneCredits <= 0 && buffer.position() == 0)) {
+                    if (!selectNextLane()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (compression != null) {
+                    // Кадр сжимается целиком и уходит из очереди, сжатые байты пишутся из pending
+                    // и учитываются в объеме неотправленных данных, пока сокет их не примет
+                    pending = compression.compress(buffer);
+                    metrics.frameCompressed(buffer.capacity(), pending.remaining());
+                    outboundBytes += pending.remaining();
+                    frameSent(queue, buffer);
+                    continue;
+                }
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    subscribeWrite();
+                    return;
+                }
+                frameSent(queue, buffer);
+            }
+            if (tls != null && !tls.flushNetwork()) {
+                // Кадры зашифрованы, но сокет принял не все байты
+                subscribeWrite();
+                return;
+            }
+            if (key != null && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException ex) {
+            close();
+        }
+    }
+
+    /**
+     * Метод для подписки на готовность сокета к записи.
+     */
+    private void subscribeWrite() {
+        if (key != null) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Метод для продолжения работы после шага рукопожатия TLS.
+     */
+    private void resumeTls() {
+        if (closed) {
+            return;
+        }
+        try {
+            tls.resume();
+        } catch (IOException ex) {
+            close();
+            return;
+        }
+        if (tls.hasBufferedInput()) {
+            read();
+        }
+        flush();
+    }
+
+    /**
+     * Метод для удаления отправленного кадра из очереди полосы.
+     */
+    private void frameSent(FrameQueue queue, ByteBuffer buffer) {
+        long waited = System.nanoTime() - queue.peekEnqueuedAt();
+        queue.poll();
+        laneCredits--;
+        outboundBytes -= buffer.capacity();
+        queuedFrames--;
+        stats.frameSent(activeLane, waited);
+    }
+
+    /**
+     * Метод для перехода к следующей по кругу непустой полосе.
+     * Если непустая только текущая полоса, она получает новый запас кадров.
+     *
+     * @return false, если все полосы пусты.
+     */
+    private boolean selectNextLane() {
+        for (int step = 1; step <= lanes.length; step++) {
+            int candidate = (activeLane + step) % lanes.length;
+            if (!lanes[candidate].isEmpty()) {
+                activeLane = candidate;
+                laneCredits = laneWeights[candidate];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Метод для чтения доступных данных и передачи полных строк обработчику.
+     */
+    void read() {
+        try {
+            do {
+                readChunk();
+            } while (tls != null && !closed && tls.hasBufferedInput());
+        } catch (IOException | DataFormatException ex) {
+            close();
+        }
+    }
+
+    /**
+     * Метод для чтения одной порции данных из канала.
+     * Канал TLS может вернуть не все расшифрованные данные за один вызов.
+     */
+    private void readChunk() throws IOException, DataFormatException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        if (compression == null) {
+            // Обработчик строки может включить сжатие, тогда остаток буфера уже сжат
+            splitLines(readBuffer, true);
+        }
+        if (compression != null && readBuffer.hasRemaining() && !closed) {
+            compression.setInput(readBuffer);
+            ByteBuffer inflated;
+            while (!closed && (inflated = compression.inflate()) != null) {
+                splitLines(inflated, false);
+            }
+        }
+        readBuffer.clear();
+    }
+
+    /**
+     * Метод для разбора байтов на строки и передачи полных строк обработчику.
+     *
+     * @param source             Байты для разбора.
+     * @param stopWhenCompressed Остановиться после строки, которая включила сжатие.
+     */
+    private void splitLines(ByteBuffer source, boolean stopWhenCompressed) throws IOException {
+        while (source.hasRemaining() && !closed) {
+            byte value = source.get();
+            if (value == '\n') {
+                int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                lineLength = 0;
+                handler.onLine(this, new String(line, 0, length, StandardCharsets.UTF_8));
+                if (stopWhenCompressed && compression != null) {
+                    return;
+                }
+            } else {
+                appendToLine(value);
+            }
+        }
+    }
+
+    private void appendToLine(byte value) throws IOException {
+        if (lineLength == line.length) {
+            if (line.length >= MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            byte[] grown = new byte[line.length * 2];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        line[lineLength++] = value;
+    }
+
+    /**
+     * Метод для закрытия соединения. Обработчик уведомляется один раз.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queuedFrames = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            stats.framesDropped(i, lanes[i].size());
+            lanes[i].clear();
+        }
+        pending = null;
+        if (compression != null) {
+            compression.release();
+            compression = null;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Канал уже закрыт
+        }
+        if (loop != null) {
+            loop.connectionClosed(this);
+        }
+        handler.onClose(this);
+    }
+}
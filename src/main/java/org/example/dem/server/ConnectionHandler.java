@@ -0,0 +1,22 @@
+package org.example.dem.server;
+
+/**
+ * Обработчик событий одного соединения. Все методы вызываются
+ * из потока цикла событий, которому принадлежит соединение.
+ */
+public interface ConnectionHandler {
+    /**
+     * Метод, вызываемый после регистрации соединения в цикле событий.
+     */
+    void onOpen(Connection connection);
+
+    /**
+     * Метод, вызываемый для каждой полученной строки (без символа перевода строки).
+     */
+    void onLine(Connection connection, String line);
+
+    /**
+     * Метод, вызываемый один раз при закрытии соединения.
+     */
+    void onClose(Connection connection);
+}
@@ -0,0 +1,354 @@
+package org.example.dem.server;
+
+import org.example.dem.metrics.OutboundStats;
+import org.example.dem.metrics.ServerMetrics;
+import org.example.dem.tls.TlsTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Цикл событий (шард): один поток с собственным Selector, который владеет
+ * частью соединений. Задачи из других потоков передаются через неблокирующую
+ * очередь (много производителей, один потребитель), поэтому общих блокировок нет.
+ * Запись в сокеты выполняется пачкой в конце каждой итерации цикла.
+ * Отложенные задачи ({@link #schedule}) хранятся в куче по сроку и выполняются тем же потоком:
+ * Selector ждет событий не дольше, чем до ближайшего срока.
+ */
+public class EventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+    // Пауза приема после ошибки accept (например, EMFILE), чтобы не крутиться в цикле на той же ошибке
+    private static final long ACCEPT_RETRY_MILLIS = 1000;
+
+    private final int index;
+    private final Selector selector;
+    private final Function<EventLoop, ConnectionHandler> handlerFactory;
+    private final Consumer<SocketChannel> acceptFilter;
+    private final Consumer<SocketChannel> acceptReleased;
+    private final long maxOutboundBytes;
+    private final int[] laneWeights;
+    private final TlsTransport tls;
+
+    // Задачи от других потоков
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    // Отложенные задачи по возрастанию срока (доступ только из потока цикла)
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerSequence;
+
+    // Соединения, в которые в этой итерации были добавлены кадры
+    private final List<Connection> pendingFlush = new ArrayList<>();
+
+    // Количество соединений этого шарда
+    private int connectionCount;
+
+    // Счетчики исходящих кадров этого шарда
+    private final OutboundStats outboundStats = ServerMetrics.get().createOutboundStats();
+
+    private volatile Thread thread;
+
+    /**
+     * @param index            Номер шарда.
+     * @param handlerFactory   Создание обработчика для нового соединения.
+     * @param acceptFilter     Проверка нового соединения до регистрации
+     *                         (может закрыть канал, например при превышении лимита).
+     * @param acceptReleased   Отмена учета соединения, которое прошло проверку, но не было зарегистрировано.
+     * @param maxOutboundBytes Максимальный объем неотправленных данных одного соединения.
+     * @param laneWeights      Веса полос исходящих кадров (индекс - порядковый номер {@link Lane}).
+     * @param tls              TLS для новых соединений (null - соединения без шифрования).
+     */
+    public EventLoop(int index, Function<EventLoop, ConnectionHandler> handlerFactory,
+                     Consumer<SocketChannel> acceptFilter, Consumer<SocketChannel> acceptReleased,
+                     long maxOutboundBytes, int[] laneWeights, TlsTransport tls) {
+        this.index = index;
+        this.handlerFactory = handlerFactory;
+        this.acceptFilter = acceptFilter;
+        this.acceptReleased = acceptReleased;
+        this.maxOutboundBytes = maxOutboundBytes;
+        this.laneWeights = laneWeights.clone();
+        this.tls = tls;
+        try {
+            this.selector = Selector.open();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    OutboundStats getOutboundStats() {
+        return outboundStats;
+    }
+
+    long getMaxOutboundBytes() {
+        return maxOutboundBytes;
+    }
+
+    int[] getLaneWeights() {
+        return laneWeights;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Метод для запуска цикла в отдельном потоке.
+     */
+    public void start() {
+        Thread loopThread = new Thread(this, "event-loop-" + index);
+        loopThread.start();
+    }
+
+    /**
+     * @return true, если метод вызван из потока этого цикла.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Метод для передачи задачи в поток цикла (можно вызывать из любого потока).
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Метод для выполнения задачи в потоке цикла через указанное время (можно вызывать из любого потока).
+     * Отменить задачу нельзя, поэтому она должна сама проверять, нужна ли она еще.
+     *
+     * @param task        Задача.
+     * @param delayMillis Задержка в миллисекундах.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        if (inEventLoop()) {
+            timers.add(new Timer(deadline, timerSequence++, task));
+        } else {
+            execute(() -> timers.add(new Timer(deadline, timerSequence++, task)));
+        }
+    }
+
+    /**
+     * Метод для приема соединений этим циклом через собственный слушающий сокет
+     * (режим SO_REUSEPORT, ядро распределяет соединения между сокетами).
+     */
+    public void listen(ServerSocketChannel serverChannel) {
+        execute(() -> {
+            try {
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Метод для передачи принятого в другом потоке соединения этому циклу.
+     */
+    public void adopt(SocketChannel channel) {
+        execute(() -> register(channel));
+    }
+
+    void scheduleFlush(Connection connection) {
+        pendingFlush.add(connection);
+    }
+
+    void connectionClosed(Connection connection) {
+        connectionCount--;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Timer next = timers.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long delayNanos = next.deadline - System.nanoTime();
+                    if (delayNanos > 0) {
+                        // Округляем вверх, чтобы не крутиться в цикле последнюю миллисекунду
+                        selector.select(TimeUnit.NANOSECONDS.toMillis(delayNanos + 999_999));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                wakeupPending.set(false);
+                processKeys();
+                runTasks();
+                runTimers();
+                flushPending();
+            } catch (ClosedSelectorException ex) {
+                return;
+            } catch (IOException ex) {
+                if (!selector.isOpen()) {
+                    return;
+                }
+                // Ошибка select не должна останавливать шард со всеми его соединениями
+                logger.error("Select failed in event loop {}", index, ex);
+            } catch (RuntimeException ex) {
+                logger.error("Unexpected error in event loop {}", index, ex);
+            }
+        }
+    }
+
+    private void processKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                acceptAll(key);
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        }
+    }
+
+    /**
+     * Метод для приема всех ожидающих соединений слушающего сокета. Если accept завершился
+     * ошибкой (например, закончились дескрипторы), прием приостанавливается на
+     * {@link #ACCEPT_RETRY_MILLIS}, а уже открытые соединения продолжают обслуживаться.
+     */
+    private void acceptAll(SelectionKey key) {
+        SocketChannel channel;
+        try {
+            while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+                register(channel);
+            }
+        } catch (IOException ex) {
+            logger.warn("Accept failed in event loop {}, pausing accept for {} ms: {}", index, ACCEPT_RETRY_MILLIS,
+                    ex.getMessage());
+            key.interestOps(0);
+            schedule(() -> {
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_ACCEPT);
+                }
+            }, ACCEPT_RETRY_MILLIS);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                logger.error("Task failed in event loop {}", index, ex);
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.deadline - now <= 0) {
+            timers.poll();
+            try {
+                timer.task.run();
+            } catch (RuntimeException ex) {
+                logger.error("Scheduled task failed in event loop {}", index, ex);
+            }
+        }
+    }
+
+    private void flushPending() {
+        // Индексный цикл: при записи соединение может закрыться, но список не изменится
+        for (int i = 0; i < pendingFlush.size(); i++) {
+            pendingFlush.get(i).flush();
+        }
+        pendingFlush.clear();
+    }
+
+    /**
+     * Метод для регистрации нового соединения в этом цикле.
+     */
+    private void register(SocketChannel channel) {
+        acceptFilter.accept(channel);
+        if (!channel.isOpen()) {
+            return;
+        }
+        ByteChannel transport = channel;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (tls != null) {
+                transport = tls.wrap(channel);
+            }
+            Connection connection = new Connection(this, transport, handlerFactory.apply(this));
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            connectionCount++;
+            connection.opened();
+        } catch (IOException ex) {
+            logger.warn("Error registering connection", ex);
+            try {
+                // Канал TLS при закрытии возвращает свои буферы в пул
+                transport.close();
+            } catch (IOException ignored) {
+                // Канал уже закрыт
+            }
+            // Соединение прошло проверку и учтено в лимите; освобождаем его место
+            acceptReleased.accept(channel);
+        }
+    }
+
+    /**
+     * Отложенная задача; задачи с одинаковым сроком выполняются в порядке добавления.
+     */
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline;
+        final long sequence;
+        final Runnable task;
+
+        Timer(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int order = Long.compare(deadline - other.deadline, 0);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.dem.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Кольцевая очередь исходящих кадров одной полосы вместе со временем постановки
+ * каждого кадра (для метрик ожидания). Время хранится в массиве long, поэтому
+ * постановка кадра не создает объектов, кроме обертки ByteBuffer.
+ */
+final class FrameQueue {
+    private ByteBuffer[] frames = new ByteBuffer[16];
+    private long[] enqueuedAt = new long[16];
+    private int head;
+    private int size;
+
+    void add(ByteBuffer frame, long now) {
+        if (size == frames.length) {
+            grow();
+        }
+        int tail = (head + size) & (frames.length - 1);
+        frames[tail] = frame;
+        enqueuedAt[tail] = now;
+        size++;
+    }
+
+    ByteBuffer peek() {
+        return size == 0 ? null : frames[head];
+    }
+
+    /**
+     * @return Время постановки первого кадра (System.nanoTime()).
+     */
+    long peekEnqueuedAt() {
+        return enqueuedAt[head];
+    }
+
+    void poll() {
+        frames[head] = null;
+        head = (head + 1) & (frames.length - 1);
+        size--;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        while (size > 0) {
+            poll();
+        }
+        head = 0;
+    }
+
+    private void grow() {
+        ByteBuffer[] grownFrames = new ByteBuffer[frames.length * 2];
+        long[] grownTimes = new long[frames.length * 2];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (frames.length - 1);
+            grownFrames[i] = frames[index];
+            grownTimes[i] = enqueuedAt[index];
+        }
+        frames = grownFrames;
+        enqueuedAt = grownTimes;
+        head = 0;
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.dem.server;
+
+/**
+ * Полосы исходящих кадров соединения в порядке приоритета.
+ * Служебные кадры (количество и список пользователей, служебные ответы) идут
+ * по полосе CONTROL и обгоняют накопившиеся сообщения чата; полосы выбираются
+ * по кругу с весами, поэтому сообщения чата не простаивают бесконечно.
+ */
+public enum Lane {
+    // Служебные кадры
+    CONTROL("control", 4),
+    // Сообщения чата
+    CHAT("chat", 1);
+
+    private final String metricName;
+    private final int defaultWeight;
+
+    Lane(String metricName, int defaultWeight) {
+        this.metricName = metricName;
+        this.defaultWeight = defaultWeight;
+    }
+
+    /**
+     * @return Имя полосы в отчете метрик.
+     */
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * @return Сколько кадров полосы отправляется подряд, пока ждут другие полосы.
+     */
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    /**
+     * @return Веса всех полос по умолчанию (индекс - порядковый номер полосы).
+     */
+    public static int[] defaultWeights() {
+        Lane[] lanes = values();
+        int[] weights = new int[lanes.length];
+        for (Lane lane : lanes) {
+            weights[lane.ordinal()] = lane.defaultWeight;
+        }
+        return weights;
+    }
+}
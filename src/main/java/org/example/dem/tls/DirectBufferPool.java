@@ -0,0 +1,58 @@
+package org.example.dem.tls;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул прямых буферов одного размера для шифрования и расшифровки TLS.
+ *
+ * <p>Соединение берет буфер только на время, пока в нем есть данные, и сразу возвращает
+ * пустой буфер, поэтому тысячам простаивающих соединений буферы не нужны вовсе.
+ * Прямые буферы дороги в создании, поэтому свободные буферы хранятся для повторного
+ * использования, но не больше {@code maxPooled}: лишние отдаются сборщику мусора.
+ */
+public final class DirectBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize Размер каждого буфера.
+     * @param maxPooled  Максимальное количество свободных буферов в пуле.
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return Пустой буфер (из пула или новый).
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Метод для возврата буфера в пул.
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,339 @@
+package org.example.dem.tls;
+
+import org.example.dem.metrics.ServerMetrics;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Неблокирующий канал TLS поверх {@link SocketChannel} на основе {@link SSLEngine}.
+ *
+ * <p>Чтение расшифровывает все полные записи TLS, уже принятые из сокета; запись шифрует
+ * данные и сразу пытается отправить их. Зашифрованные байты, которые сокет не принял,
+ * остаются в канале и дописываются методом {@link #flushNetwork()}.
+ *
+ * <p>Буферы берутся из пулов только на время, пока в них есть данные. Задачи рукопожатия
+ * выполняются в отдельном пуле потоков; пока они идут, канал не читает и не пишет,
+ * а по их завершении вызывает {@code wakeup}, чтобы владелец продолжил обработку
+ * в своем потоке методом {@link #resume()}.
+ *
+ * <p>Все методы, кроме {@link #setWakeup(Runnable)}, вызываются только из потока цикла событий.
+ */
+public final class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final ServerMetrics metrics = ServerMetrics.get();
+
+    private final SocketChannel socket;
+    private final SSLEngine engine;
+    private final DirectBufferPool packetBuffers;
+    private final DirectBufferPool applicationBuffers;
+    private final Executor handshakeExecutor;
+
+    // Принятые зашифрованные байты, отправляемые зашифрованные байты, расшифрованные данные (null - пусто)
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+
+    // Вызывается после завершения задач рукопожатия и когда канал готов к записи данных
+    private volatile Runnable wakeup = () -> { };
+    private boolean tasksRunning;
+    private boolean handshakeComplete;
+    private boolean inboundClosed;
+    // Последняя расшифровка остановилась на неполной записи TLS
+    private boolean underflow;
+    private final long handshakeStart = System.nanoTime();
+
+    TlsChannel(SocketChannel socket, SSLEngine engine, DirectBufferPool packetBuffers,
+               DirectBufferPool applicationBuffers, Executor handshakeExecutor) {
+        this.socket = socket;
+        this.engine = engine;
+        this.packetBuffers = packetBuffers;
+        this.applicationBuffers = applicationBuffers;
+        this.handshakeExecutor = handshakeExecutor;
+    }
+
+    /**
+     * @param wakeup Обратный вызов, который может выполняться в любом потоке.
+     */
+    public void setWakeup(Runnable wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    /**
+     * @return true, если рукопожатие завершено и можно отправлять данные.
+     */
+    public boolean isReady() {
+        return handshakeComplete && !tasksRunning;
+    }
+
+    /**
+     * @return true, если в канале остались данные, которые можно прочитать без обращения к сокету.
+     */
+    public boolean hasBufferedInput() {
+        return (appIn != null && appIn.position() > 0)
+                || (netIn != null && netIn.position() > 0 && !underflow && !tasksRunning);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (appIn == null || appIn.position() == 0) {
+            if (netIn == null) {
+                netIn = packetBuffers.acquire();
+            }
+            // Сокет вычитывается и во время задач рукопожатия, иначе селектор будет
+            // сообщать о готовности к чтению, пока задачи не завершатся
+            int read = netIn.hasRemaining() ? socket.read(netIn) : 0;
+            if (read > 0) {
+                underflow = false;
+            }
+            unwrap();
+            if ((read < 0 || inboundClosed) && (appIn == null || appIn.position() == 0)) {
+                return -1;
+            }
+        }
+        return drainApplicationData(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!isReady() || !flushNetwork()) {
+            return 0;
+        }
+        int consumed = 0;
+        while (src.hasRemaining()) {
+            if (netOut == null) {
+                netOut = packetBuffers.acquire();
+            }
+            SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("TLS session closed");
+            }
+            consumed += result.bytesConsumed();
+            if (!flushNetwork()) {
+                break;
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Метод для отправки зашифрованных байтов, которые сокет не принял ранее.
+     *
+     * @return true, если все зашифрованные байты отправлены.
+     */
+    public boolean flushNetwork() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        netOut.flip();
+        socket.write(netOut);
+        netOut.compact();
+        if (netOut.position() > 0) {
+            return false;
+        }
+        packetBuffers.release(netOut);
+        netOut = null;
+        return true;
+    }
+
+    /**
+     * Метод для продолжения рукопожатия после выполнения задач в пуле.
+     */
+    public void resume() throws IOException {
+        tasksRunning = false;
+        if (!continueHandshake(engine.getHandshakeStatus())) {
+            return;
+        }
+        unwrap();
+    }
+
+    /**
+     * Метод для расшифровки всех полных записей TLS из буфера принятых байтов.
+     */
+    private void unwrap() throws IOException {
+        while (netIn != null && netIn.position() > 0 && !tasksRunning && !underflow) {
+            if (appIn == null) {
+                appIn = applicationBuffers.acquire();
+            }
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                inboundClosed = true;
+                break;
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                // Буфер расшифрованных данных заполнен; остаток будет прочитан следующим вызовом
+                break;
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                underflow = true;
+            }
+            if (!continueHandshake(result.getHandshakeStatus())) {
+                break;
+            }
+        }
+        releaseEmptyInput();
+    }
+
+    /**
+     * Метод для выполнения следующего шага рукопожатия.
+     *
+     * @return false, если рукопожатие ждет задач в пуле потоков.
+     */
+    private boolean continueHandshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+        while (true) {
+            switch (status) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    return false;
+                case NEED_WRAP:
+                    status = wrapHandshake();
+                    break;
+                case FINISHED:
+                    // После завершения сервер TLS 1.3 может сразу отправить билет сессии
+                    handshakeFinished();
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NOT_HANDSHAKING:
+                    handshakeFinished();
+                    return true;
+                default:
+                    // NEED_UNWRAP: ждем данных от клиента
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Метод для формирования и отправки сообщения рукопожатия.
+     */
+    private SSLEngineResult.HandshakeStatus wrapHandshake() throws IOException {
+        if (netOut == null) {
+            netOut = packetBuffers.acquire();
+        }
+        SSLEngineResult result = engine.wrap(EMPTY, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && !flushNetwork()) {
+            throw new SSLException("Handshake message does not fit into the network buffer");
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS session closed during handshake");
+        }
+        if (!flushNetwork()) {
+            // Сокет не принял все байты: владелец дождется готовности к записи
+            wakeup.run();
+        }
+        return result.getHandshakeStatus();
+    }
+
+    /**
+     * Метод для передачи задач рукопожатия в пул потоков.
+     */
+    private void runDelegatedTasks() throws IOException {
+        List<Runnable> tasks = new ArrayList<>(2);
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+        tasksRunning = true;
+        try {
+            handshakeExecutor.execute(() -> {
+                for (Runnable delegated : tasks) {
+                    delegated.run();
+                }
+                wakeup.run();
+            });
+        } catch (RejectedExecutionException ex) {
+            metrics.tlsHandshakeRejected();
+            throw new SSLException("Handshake pool is full", ex);
+        }
+    }
+
+    private void handshakeFinished() {
+        if (handshakeComplete) {
+            return;
+        }
+        handshakeComplete = true;
+        metrics.tlsHandshakeCompleted(System.nanoTime() - handshakeStart);
+        // Владелец может отправить накопленные кадры
+        wakeup.run();
+    }
+
+    private int drainApplicationData(ByteBuffer dst) {
+        if (appIn == null) {
+            return 0;
+        }
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + count);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        if (appIn.position() == 0) {
+            applicationBuffers.release(appIn);
+            appIn = null;
+        }
+        return count;
+    }
+
+    private void releaseEmptyInput() {
+        if (netIn != null && netIn.position() == 0) {
+            packetBuffers.release(netIn);
+            netIn = null;
+        }
+        if (appIn != null && appIn.position() == 0) {
+            applicationBuffers.release(appIn);
+            appIn = null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return socket.isOpen();
+    }
+
+    /**
+     * Метод для закрытия канала: клиенту отправляется close_notify, если сокет его примет,
+     * и буферы возвращаются в пулы.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!tasksRunning && socket.isOpen()) {
+                engine.closeOutbound();
+                if (netOut == null) {
+                    netOut = packetBuffers.acquire();
+                }
+                engine.wrap(EMPTY, netOut);
+                flushNetwork();
+            }
+        } catch (IOException ignored) {
+            // Соединение уже разорвано
+        } finally {
+            socket.close();
+            if (netIn != null) {
+                packetBuffers.release(netIn);
+                netIn = null;
+            }
+            if (netOut != null) {
+                packetBuffers.release(netOut);
+                netOut = null;
+            }
+            if (appIn != null) {
+                applicationBuffers.release(appIn);
+                appIn = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.dem.tls;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Создание контекстов TLS для сервера и клиента.
+ *
+ * <p>Сервер хранит сессии в кэше {@link SSLSessionContext}, а в TLS 1.3 дополнительно
+ * выдает клиентам билеты сессий, поэтому повторное подключение того же клиента
+ * выполняет сокращенное рукопожатие без операций с закрытым ключом. Клиент возобновляет
+ * сессию автоматически, если переиспользует один контекст для всех подключений.
+ */
+public final class TlsContexts {
+    // Протокол контекстов (включает TLS 1.2 и TLS 1.3)
+    private static final String PROTOCOL = "TLS";
+
+    // Время ожидания утилиты keytool
+    private static final long KEYTOOL_TIMEOUT_SECONDS = 60;
+
+    private TlsContexts() {
+    }
+
+    /**
+     * Метод для создания серверного контекста из хранилища ключей PKCS12.
+     *
+     * @param keyStore              Хранилище с ключом и сертификатом сервера.
+     * @param password              Пароль хранилища и ключа.
+     * @param sessionCacheSize      Максимальное количество сессий в кэше (0 - без ограничения).
+     * @param sessionTimeoutSeconds Время жизни сессии для возобновления.
+     */
+    public static SSLContext serverContext(Path keyStore, char[] password, int sessionCacheSize,
+                                           int sessionTimeoutSeconds) throws IOException {
+        try {
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(load(keyStore, password), password);
+            SSLContext context = SSLContext.getInstance(PROTOCOL);
+            context.init(keyManagers.getKeyManagers(), null, null);
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeoutSeconds);
+            return context;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Error creating TLS context from " + keyStore, ex);
+        }
+    }
+
+    /**
+     * Метод для создания клиентского контекста.
+     *
+     * @param trustStore Хранилище доверенных сертификатов (null - сертификаты JDK по умолчанию).
+     * @param password   Пароль хранилища.
+     */
+    public static SSLContext clientContext(Path trustStore, char[] password) throws IOException {
+        try {
+            SSLContext context = SSLContext.getInstance(PROTOCOL);
+            if (trustStore == null) {
+                context.init(null, null, null);
+                return context;
+            }
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(load(trustStore, password));
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Error creating TLS context from " + trustStore, ex);
+        }
+    }
+
+    /**
+     * Метод для создания самоподписанного ключа сервера для локальной проверки.
+     * Сертификат выдан на localhost и 127.0.0.1. Клиентам раздается не этот файл
+     * с закрытым ключом, а хранилище, созданное {@link #exportCertificate}.
+     *
+     * @param keyStore Файл хранилища PKCS12, который нужно создать.
+     * @param password Пароль хранилища и ключа.
+     */
+    public static void generateSelfSigned(Path keyStore, char[] password) throws IOException {
+        Path parent = keyStore.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // Ключ EC P-256: рукопожатие заметно дешевле, чем с RSA
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(List.of(keytool.toString(),
+                "-genkeypair", "-alias", "chat-server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "365",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", new String(password), "-keypass", new String(password)))
+                .redirectErrorStream(true)
+                .start();
+        try {
+            String output = new String(process.getInputStream().readAllBytes());
+            if (!process.waitFor(KEYTOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("keytool failed: " + output);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating " + keyStore, ex);
+        }
+    }
+
+    /**
+     * Метод для сохранения сертификата сервера без закрытого ключа в отдельное хранилище
+     * PKCS12, которое клиенты используют как хранилище доверенных сертификатов.
+     *
+     * @param keyStore   Хранилище с ключом и сертификатом сервера.
+     * @param password   Пароль хранилища ключа; им же защищается новое хранилище.
+     * @param trustStore Файл хранилища сертификата, который нужно создать.
+     */
+    public static void exportCertificate(Path keyStore, char[] password, Path trustStore) throws IOException {
+        try {
+            KeyStore source = load(keyStore, password);
+            KeyStore target = KeyStore.getInstance("PKCS12");
+            target.load(null, null);
+            for (String alias : Collections.list(source.aliases())) {
+                if (source.isKeyEntry(alias)) {
+                    target.setCertificateEntry(alias, source.getCertificate(alias));
+                }
+            }
+            Path parent = trustStore.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (OutputStream output = Files.newOutputStream(trustStore)) {
+                target.store(output, password);
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Error exporting certificate from " + keyStore, ex);
+        }
+    }
+
+    private static KeyStore load(Path file, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(file)) {
+            store.load(input, password);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.dem.tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Общие ресурсы серверного TLS: контекст с кэшем сессий, пулы прямых буферов
+ * и ограниченный пул потоков для тяжелых этапов рукопожатия.
+ *
+ * <p>Вычисления рукопожатия (подпись, обмен ключами, проверка сертификатов) SSLEngine
+ * отдает как отдельные задачи; они выполняются в пуле {@code handshakeThreads} потоков,
+ * а не в цикле событий, поэтому волна переподключений не задерживает сообщения уже
+ * подключенных клиентов. Очередь пула ограничена: если она заполнена, новое соединение
+ * закрывается, и клиент повторяет попытку позже.
+ */
+public final class TlsTransport {
+    private final SSLContext context;
+    private final DirectBufferPool packetBuffers;
+    private final DirectBufferPool applicationBuffers;
+    private final ExecutorService handshakeExecutor;
+
+    /**
+     * @param context          Серверный контекст TLS.
+     * @param handshakeThreads Количество потоков для задач рукопожатия.
+     * @param handshakeQueue   Максимальное количество рукопожатий в очереди пула.
+     * @param maxPooledBuffers Максимальное количество свободных буферов каждого вида в пуле.
+     */
+    public TlsTransport(SSLContext context, int handshakeThreads, int handshakeQueue, int maxPooledBuffers) {
+        this.context = context;
+        SSLSession session = context.createSSLEngine().getSession();
+        this.packetBuffers = new DirectBufferPool(session.getPacketBufferSize(), maxPooledBuffers);
+        this.applicationBuffers = new DirectBufferPool(session.getApplicationBufferSize(), maxPooledBuffers);
+        AtomicInteger threadIds = new AtomicInteger();
+        this.handshakeExecutor = new ThreadPoolExecutor(handshakeThreads, handshakeThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(handshakeQueue), runnable -> {
+            Thread thread = new Thread(runnable, "tls-handshake-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Метод для подключения TLS к принятому соединению.
+     *
+     * @param channel Неблокирующий канал клиента.
+     * @return Канал, который шифрует записываемые и расшифровывает читаемые данные.
+     */
+    public TlsChannel wrap(SocketChannel channel) throws IOException {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.beginHandshake();
+        return new TlsChannel(channel, engine, packetBuffers, applicationBuffers, handshakeExecutor);
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.dem.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CaptureFormatTest {
+    private static final long[] VALUES = {
+            0, 1, -1, 63, -64, 64, 127, 128, 300, -300, 16_383, 16_384,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 35, -(1L << 35), Long.MAX_VALUE, Long.MIN_VALUE
+    };
+
+    @Test
+    void zigzagRoundTrip() {
+        for (long value : VALUES) {
+            assertEquals(value, CaptureFormat.unzigzag(CaptureFormat.zigzag(value)));
+        }
+    }
+
+    @Test
+    void zigzagKeepsSmallMagnitudesSmall() {
+        assertEquals(0, CaptureFormat.zigzag(0));
+        assertEquals(1, CaptureFormat.zigzag(-1));
+        assertEquals(2, CaptureFormat.zigzag(1));
+        assertEquals(3, CaptureFormat.zigzag(-2));
+        assertEquals(-1, CaptureFormat.zigzag(Long.MIN_VALUE));
+    }
+
+    @Test
+    void varLongRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : VALUES) {
+            CaptureFormat.writeVarLong(out, value);
+            CaptureFormat.writeVarLong(out, CaptureFormat.zigzag(value));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : VALUES) {
+            assertEquals(value, CaptureFormat.readVarLong(in));
+            assertEquals(value, CaptureFormat.unzigzag(CaptureFormat.readVarLong(in)));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void varLongEncodingLength() throws IOException {
+        assertArrayEquals(new byte[]{0}, encode(0));
+        assertArrayEquals(new byte[]{0x7F}, encode(127));
+        assertArrayEquals(new byte[]{(byte) 0x80, 0x01}, encode(128));
+        assertArrayEquals(new byte[]{(byte) 0xAC, 0x02}, encode(300));
+        assertEquals(10, encode(-1).length);
+    }
+
+    @Test
+    void malformedVarLongIsRejected() {
+        byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertThrows(IOException.class, () -> CaptureFormat.readVarLong(in));
+    }
+
+    private static byte[] encode(long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CaptureFormat.writeVarLong(new DataOutputStream(bytes), value);
+        return bytes.toByteArray();
+    }
+}
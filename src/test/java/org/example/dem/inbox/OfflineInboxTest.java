@@ -0,0 +1,146 @@
+package org.example.dem.inbox;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OfflineInboxTest {
+    private static final String USER = "alice";
+    // Ящик с одним сообщением: его доставка означает, что все ранее поставленные операции выполнены
+    private static final String BARRIER = "barrier";
+
+    @TempDir
+    Path directory;
+
+    private OfflineInbox inbox;
+    private final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void createInboxes() throws InterruptedException {
+        inbox = new OfflineInbox(directory, 1024 * 1024);
+        inbox.userLoggedIn(USER, frames::add);
+        inbox.userLoggedIn(BARRIER, frames::add);
+        inbox.store(BARRIER, "sync");
+        await();
+    }
+
+    @Test
+    void undeliveredMessagesAreSentOnLogin() throws InterruptedException {
+        inbox.store(USER, "m1");
+        inbox.store(USER, "m2");
+        JSONObject frame = login();
+        assertEquals(List.of("m1", "m2"), messages(frame));
+        assertEquals("inbox", frame.getString("type"));
+    }
+
+    @Test
+    void acknowledgedMessagesAreNotSentAgain() throws Exception {
+        inbox.store(USER, "m1");
+        inbox.store(USER, "m2");
+        long ack = login().getLong("ack");
+        inbox.acknowledge(USER, ack);
+        inbox.store(USER, "m3");
+
+        JSONObject frame = login();
+        assertEquals(List.of("m3"), messages(frame));
+        assertTrue(frame.getLong("ack") > ack, "offsets must keep growing after truncation");
+        assertEquals(Integer.BYTES + 2, Files.size(logFile()));
+    }
+
+    @Test
+    void staleAckAfterTruncationKeepsNewMessages() throws InterruptedException {
+        inbox.store(USER, "m1");
+        long first = login().getLong("ack");
+        inbox.store(USER, "m2");
+        long second = login().getLong("ack");
+        inbox.acknowledge(USER, second);
+        inbox.store(USER, "m3");
+        // Запоздавшие подтверждения от другой сессии
+        inbox.acknowledge(USER, first);
+        inbox.acknowledge(USER, second);
+
+        assertEquals(List.of("m3"), messages(login()));
+    }
+
+    @Test
+    void compactionKeepsUnacknowledgedTail() throws Exception {
+        String large = "x".repeat(5000);
+        for (int i = 0; i < 20; i++) {
+            inbox.store(USER, large);
+        }
+        JSONObject frame = login();
+        assertEquals(20, messages(frame).size());
+        long ack = frame.getLong("ack");
+        inbox.store(USER, "tail");
+        inbox.acknowledge(USER, ack);
+        await();
+        // Подтвержденная часть больше порога сжатия: в журнале остается только хвост
+        assertEquals(Integer.BYTES + 4, Files.size(logFile()));
+
+        frame = login();
+        assertEquals(List.of("tail"), messages(frame));
+        assertEquals(ack + Integer.BYTES + 4, frame.getLong("ack"));
+
+        // Повторное подтверждение старого смещения не трогает сжатый журнал
+        inbox.acknowledge(USER, ack);
+        inbox.store(USER, "next");
+        assertEquals(List.of("tail", "next"), messages(login()));
+    }
+
+    @Test
+    void messagesForUnknownUsersAreDropped() throws InterruptedException {
+        inbox.store("bob", "hello");
+        await();
+        assertTrue(Files.notExists(directory.resolve(fileName("bob") + ".log")));
+    }
+
+    private JSONObject login() throws InterruptedException {
+        inbox.userLoggedIn(USER, frames::add);
+        String frame = frames.poll(5, TimeUnit.SECONDS);
+        assertNotNull(frame, "inbox was not delivered");
+        return new JSONObject(frame);
+    }
+
+    /**
+     * Ждет выполнения всех поставленных операций (фоновый поток один).
+     */
+    private void await() throws InterruptedException {
+        inbox.userLoggedIn(BARRIER, frames::add);
+        String frame = frames.poll(5, TimeUnit.SECONDS);
+        assertNotNull(frame, "inbox thread did not respond");
+        assertEquals(List.of("sync"), messages(new JSONObject(frame)));
+    }
+
+    private static List<String> messages(JSONObject frame) {
+        JSONArray array = frame.getJSONArray("messages");
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            messages.add(array.getString(i));
+        }
+        return messages;
+    }
+
+    private Path logFile() {
+        return directory.resolve(fileName(USER) + ".log");
+    }
+
+    private static String fileName(String username) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8));
+    }
+}
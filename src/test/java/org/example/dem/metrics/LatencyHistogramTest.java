@@ -0,0 +1,104 @@
+package org.example.dem.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    // Значение заведомо больше проверяемых: перцентиль 50 из двух значений попадает
+    // в корзину меньшего из них и не обрезается максимумом
+    private static final long LARGE = 1L << 39;
+
+    @Test
+    void valuesBelowLinearRangeAreExact() {
+        for (long value = 0; value < 64; value++) {
+            assertEquals(value, bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    void bucketUpperBoundIsWithinRelativeError() {
+        for (long value = 64; value < LARGE; value = value * 3 / 2 + 1) {
+            long upper = bucketUpperBound(value);
+            assertTrue(upper >= value, "upper bound " + upper + " below " + value);
+            assertTrue(upper - value <= value / 32, "upper bound " + upper + " too far from " + value);
+        }
+    }
+
+    @Test
+    void adjacentValuesShareBucketsOfDoublingWidth() {
+        // 64..127 делятся на корзины по 2, 128..255 - по 4
+        assertEquals(101, bucketUpperBound(100));
+        assertEquals(101, bucketUpperBound(101));
+        assertEquals(103, bucketUpperBound(102));
+        assertEquals(203, bucketUpperBound(200));
+        assertEquals(1007, bucketUpperBound(1000));
+    }
+
+    @Test
+    void percentilesOfUniformRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(5));
+        assertWithin(500, histogram.getValueAtPercentile(50));
+        assertWithin(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 40) - 1, histogram.getMax());
+        assertEquals((1L << 40) - 1, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void addToMergesAndResetClears() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(20);
+        second.record(30);
+        LatencyHistogram total = new LatencyHistogram();
+        first.addTo(total);
+        second.addTo(total);
+        assertEquals(3, total.getCount());
+        assertEquals(30, total.getMax());
+        assertEquals(20, total.getMean(), 1e-9);
+        assertEquals(20, total.getValueAtPercentile(50));
+
+        total.reset();
+        assertEquals(0, total.getCount());
+        assertEquals(0, total.getMax());
+        assertEquals(0, total.getValueAtPercentile(50));
+    }
+
+    private static long bucketUpperBound(long value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(LARGE);
+        return histogram.getValueAtPercentile(50);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual - expected <= expected / 32,
+                "expected about " + expected + ", got " + actual);
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.dem.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AhoCorasickTest {
+    @Test
+    void findsFirstMatchEnd() {
+        AhoCorasick automaton = new AhoCorasick(List.of("he", "she", "his", "hers"));
+        assertEquals(4, automaton.find("ushers"));
+        assertEquals(3, automaton.find("his"));
+        assertEquals(-1, automaton.find("hx sx"));
+        assertEquals(-1, automaton.find(""));
+    }
+
+    @Test
+    void followsFailureLinks() {
+        // После "abab" автомат должен вернуться в состояние "ab", а не в корень
+        AhoCorasick automaton = new AhoCorasick(List.of("abac"));
+        assertEquals(6, automaton.find("ababac"));
+        assertEquals(-1, automaton.find("ababab"));
+    }
+
+    @Test
+    void masksOverlappingAndNestedPatterns() {
+        AhoCorasick automaton = new AhoCorasick(List.of("abc", "bcd", "b"));
+        assertEquals("x****y", automaton.mask("xabcdy", '*'));
+        assertEquals("a*c", new AhoCorasick(List.of("b")).mask("abc", '*'));
+    }
+
+    @Test
+    void maskReturnsSameStringWithoutMatches() {
+        AhoCorasick automaton = new AhoCorasick(List.of("spam"));
+        String text = "nothing to hide";
+        assertSame(text, automaton.mask(text, '*'));
+    }
+
+    @Test
+    void ignoresCase() {
+        AhoCorasick automaton = new AhoCorasick(List.of("Spam", "привет"));
+        assertEquals("buy **** now", automaton.mask("buy SPAM now", '*'));
+        assertEquals("****", automaton.mask("sPaM", '*'));
+        assertEquals("******!", automaton.mask("ПрИвЕт!", '*'));
+    }
+
+    @Test
+    void foldsCharactersWhoseLowercaseDiffers() {
+        // Строчная форма 'İ' (U+0130) - 'i', поэтому шаблон совпадает с обоими написаниями
+        AhoCorasick automaton = new AhoCorasick(List.of("İstanbul"));
+        assertEquals(8, automaton.find("istanbul"));
+        assertEquals(8, automaton.find("ISTANBUL"));
+        assertEquals(8, automaton.find("İSTANBUL"));
+        assertEquals(-1, automaton.find("stanbul"));
+    }
+
+    @Test
+    void keepsClassesOfEarlierPatterns() {
+        // Заглавная форма 'ſ' (U+017F) - 'S': она не должна отнимать класс у 's'
+        AhoCorasick automaton = new AhoCorasick(List.of("sa", "ſx"));
+        assertEquals(2, automaton.find("SA"));
+        assertEquals(2, automaton.find("sa"));
+        assertEquals(2, automaton.find("ſx"));
+    }
+
+    @Test
+    void skipsEmptyPatterns() {
+        AhoCorasick automaton = new AhoCorasick(List.of("", "ab"));
+        assertEquals(-1, automaton.find("xyz"));
+        assertEquals(2, automaton.find("ab"));
+        assertEquals(3, automaton.getStateCount());
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.dem.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameQueueTest {
+    @Test
+    void emptyQueue() {
+        FrameQueue queue = new FrameQueue();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+        assertNull(queue.peek());
+    }
+
+    @Test
+    void keepsOrderAndTimesWhenGrowing() {
+        FrameQueue queue = new FrameQueue();
+        ByteBuffer[] frames = frames(100);
+        for (int i = 0; i < frames.length; i++) {
+            queue.add(frames[i], i);
+        }
+        assertEquals(frames.length, queue.size());
+        drainAndCheck(queue, frames, 0, frames.length);
+    }
+
+    @Test
+    void keepsOrderWhenGrowingWrappedQueue() {
+        FrameQueue queue = new FrameQueue();
+        ByteBuffer[] frames = frames(40);
+        // Сдвигаем голову, чтобы при росте очередь была «разорвана» по концу массива
+        for (int i = 0; i < 10; i++) {
+            queue.add(frames[i], i);
+        }
+        drainAndCheck(queue, frames, 0, 6);
+        for (int i = 10; i < frames.length; i++) {
+            queue.add(frames[i], i);
+        }
+        assertEquals(frames.length - 6, queue.size());
+        drainAndCheck(queue, frames, 6, frames.length);
+    }
+
+    @Test
+    void clearDropsFramesAndAllowsReuse() {
+        FrameQueue queue = new FrameQueue();
+        ByteBuffer[] frames = frames(20);
+        for (int i = 0; i < 5; i++) {
+            queue.add(frames[i], i);
+        }
+        queue.poll();
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        for (int i = 0; i < frames.length; i++) {
+            queue.add(frames[i], i);
+        }
+        drainAndCheck(queue, frames, 0, frames.length);
+    }
+
+    private static void drainAndCheck(FrameQueue queue, ByteBuffer[] frames, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertSame(frames[i], queue.peek(), "frame " + i);
+            assertEquals(i, queue.peekEnqueuedAt(), "enqueue time of frame " + i);
+            queue.poll();
+        }
+        if (to == frames.length) {
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    private static ByteBuffer[] frames(int count) {
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = ByteBuffer.wrap(new byte[]{(byte) i});
+        }
+        return frames;
+    }
+}